@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// AI 回答缓存：按 (模型, 提示词) 的 SHA-256 做键，内存里是一个小 LRU，
+// 磁盘上每条一个文件放在 ~/.lantern/ai-cache，总大小超了就删最久没用的；过期的条目当作不存在。
+// 同样的请求还在路上时，后来的直接等同一个结果，不会再发一次
+class AiCache {
+    private record Entry(String value, long created) {
+    }
+
+    private final Path dir;
+    private final int memoryEntries;
+    private final Executor io;
+    private volatile long diskBytes;
+    private volatile long ttlMillis;
+    private final Map<String, Entry> memory;
+    private final Map<String, Pending> inFlight = new ConcurrentHashMap<>();
+    final AtomicLong memoryHits = new AtomicLong();
+    final AtomicLong diskHits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong coalesced = new AtomicLong();
+
+    AiCache(Path dir, int memoryEntries, long diskBytes, long ttlMillis, Executor io) {
+        this.dir = dir;
+        this.memoryEntries = Math.max(1, memoryEntries);
+        this.diskBytes = diskBytes;
+        this.ttlMillis = ttlMillis;
+        this.io = io;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > AiCache.this.memoryEntries;
+            }
+        };
+    }
+
+    void reconfigure(long diskBytes, long ttlMillis) {
+        this.diskBytes = diskBytes;
+        this.ttlMillis = ttlMillis;
+        io.execute(this::trimDisk);
+    }
+
+    // 同一个请求的所有调用方共享一个 Pending；每个调用方拿到自己的 future，全部取消了才真正断开请求
+    private static final class Pending {
+        final CompletableFuture<String> shared = new CompletableFuture<>();
+        final AtomicInteger waiters = new AtomicInteger();
+        volatile CompletableFuture<String> upstream;
+        volatile boolean abandoned;
+    }
+
+    // fetch 只在内存和磁盘都没有时才调用；它以异常结束的结果不会被缓存
+    CompletableFuture<String> get(String model, String prompt, Supplier<CompletableFuture<String>> fetch) {
+        if (ttlMillis <= 0) {
+            misses.incrementAndGet();
+            return fetch.get();
+        }
+        String key = key(model, prompt);
+        Entry hit = memoryGet(key);
+        if (hit != null) {
+            memoryHits.incrementAndGet();
+            return CompletableFuture.completedFuture(hit.value());
+        }
+        Pending fresh = new Pending();
+        Pending pending = inFlight.putIfAbsent(key, fresh);
+        if (pending != null) {
+            coalesced.incrementAndGet();
+            return waiter(pending);
+        }
+        CompletableFuture<String> mine = waiter(fresh);
+        CompletableFuture.supplyAsync(() -> readDisk(key), io)
+                .thenCompose(disk -> {
+                    if (disk != null) {
+                        diskHits.incrementAndGet();
+                        memoryPut(key, disk);
+                        return CompletableFuture.completedFuture(disk.value());
+                    }
+                    if (fresh.abandoned) throw new CancellationException();
+                    misses.incrementAndGet();
+                    CompletableFuture<String> up = fetch.get();
+                    fresh.upstream = up;
+                    if (fresh.abandoned) up.cancel(true);
+                    return up.thenApply(value -> {
+                        Entry entry = new Entry(value, System.currentTimeMillis());
+                        memoryPut(key, entry);
+                        io.execute(() -> writeDisk(key, model, entry));
+                        return value;
+                    });
+                })
+                .whenComplete((value, ex) -> {
+                    // 先从表里拿掉再通知，之后再来的请求会直接命中内存
+                    inFlight.remove(key, fresh);
+                    if (ex != null) fresh.shared.completeExceptionally(ex);
+                    else fresh.shared.complete(value);
+                });
+        return mine;
+    }
+
+    private CompletableFuture<String> waiter(Pending p) {
+        p.waiters.incrementAndGet();
+        CompletableFuture<String> mine = p.shared.copy();
+        mine.whenComplete((v, ex) -> {
+            if (mine.isCancelled() && p.waiters.decrementAndGet() == 0) {
+                p.abandoned = true;
+                CompletableFuture<String> up = p.upstream;
+                if (up != null) up.cancel(true);
+            }
+        });
+        return mine;
+    }
+
+    String statsText() {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        return String.format("命中 %d（内存 %d / 磁盘 %d），未命中 %d，合并重复请求 %d，命中率 %.0f%%",
+                hits, memoryHits.get(), diskHits.get(), misses.get(), coalesced.get(),
+                total == 0 ? 0.0 : 100.0 * hits / total);
+    }
+
+    static String key(String model, String prompt) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(model.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            sha.update(prompt.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean expired(Entry e) {
+        return System.currentTimeMillis() - e.created() > ttlMillis;
+    }
+
+    private Entry memoryGet(String key) {
+        synchronized (memory) {
+            Entry e = memory.get(key);
+            if (e != null && expired(e)) {
+                memory.remove(key);
+                return null;
+            }
+            return e;
+        }
+    }
+
+    private void memoryPut(String key, Entry e) {
+        synchronized (memory) {
+            memory.put(key, e);
+        }
+    }
+
+    private Path fileFor(String key) {
+        return dir.resolve(key + ".json");
+    }
+
+    // 以下方法都在 io 线程上执行
+    private Entry readDisk(String key) {
+        Path file = fileFor(key);
+        if (!Files.exists(file)) return null;
+        try {
+            String json = Files.readString(file, StandardCharsets.UTF_8);
+            String value = null;
+            long created = 0;
+            try (JsonReader r = new JsonReader(new StringReader(json), json.length())) {
+                r.beginObject();
+                while (r.hasNext()) {
+                    switch (r.nextName()) {
+                        case "created" -> created = r.nextLong();
+                        case "value" -> value = r.nextString();
+                        default -> r.skipValue();
+                    }
+                }
+                r.endObject();
+            }
+            Entry e = value == null ? null : new Entry(value, created);
+            if (e == null || expired(e)) {
+                Files.deleteIfExists(file);
+                return null;
+            }
+            // 修改时间当作最近使用时间，清理时按它排序
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return e;
+        } catch (IOException e) {
+            System.err.println("读取 AI 缓存失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, String model, Entry e) {
+        try {
+            Files.createDirectories(dir);
+            PersistenceService.writeAtomically(fileFor(key), out -> new JsonWriter(out).beginObject()
+                    .name("model").value(model)
+                    .name("created").value(e.created())
+                    .name("value").value(e.value())
+                    .endObject()
+                    .flush());
+            trimDisk();
+        } catch (IOException ex) {
+            System.err.println("写入 AI 缓存失败: " + ex.getMessage());
+        }
+    }
+
+    // 删掉过期的条目，总大小还超就从最久没用的开始删
+    private void trimDisk() {
+        if (!Files.isDirectory(dir)) return;
+        record CachedFile(Path path, long size, long lastUsed) {
+        }
+        List<CachedFile> files = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path p : stream) {
+                long size = Files.size(p);
+                long lastUsed = Files.getLastModifiedTime(p).toMillis();
+                // 最近一次使用都已经超过有效期，内容肯定也过期了
+                if (now - lastUsed > ttlMillis) {
+                    Files.deleteIfExists(p);
+                    continue;
+                }
+                files.add(new CachedFile(p, size, lastUsed));
+                total += size;
+            }
+            if (total <= diskBytes) return;
+            files.sort(Comparator.comparingLong(CachedFile::lastUsed));
+            for (CachedFile f : files) {
+                if (total <= diskBytes) break;
+                Files.deleteIfExists(f.path());
+                total -= f.size();
+            }
+        } catch (IOException e) {
+            System.err.println("清理 AI 缓存失败: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Control;
+import javafx.scene.control.Hyperlink;
+import javafx.scene.control.Menu;
+import javafx.scene.control.MenuButton;
+import javafx.scene.control.MenuItem;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Region;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// 书签栏上的书签部分。只给放得下的书签建控件，放不下的收进最右边的 » 菜单，菜单打开时才建菜单项；
+// 文件夹也是打开时才建子菜单。书签改动时只删掉或改动对应的那个控件，再重新排一次
+class BookmarkBar extends Region {
+    private static final double GAP = 5;
+
+    private final Consumer<String> open;
+    private final Consumer<String> openInBackground;
+    private final MenuButton chevron = new MenuButton("»");
+    // 书签栏里直接放着的节点 id → 已经建好的控件
+    private final Map<Long, Control> controls = new HashMap<>();
+    private final BookmarkStore.Listener listener = new BookmarkStore.Listener() {
+        @Override
+        public void added(BookmarkStore.Node parent, int index, BookmarkStore.Node node) {
+            if (parent == store.bar) requestLayout();
+        }
+
+        @Override
+        public void removed(BookmarkStore.Node parent, int index, BookmarkStore.Node node) {
+            if (parent != store.bar) return;
+            Control c = controls.remove(node.id);
+            if (c != null) getChildren().remove(c);
+            requestLayout();
+        }
+
+        @Override
+        public void renamed(BookmarkStore.Node node) {
+            Control c = controls.get(node.id);
+            if (c instanceof Hyperlink link) link.setText(node.title);
+            else if (c instanceof MenuButton folder) folder.setText("📁 " + node.title);
+            if (c != null) requestLayout();
+        }
+    };
+    private BookmarkStore store;
+    // 第一个放不下的书签在书签栏里的下标
+    private int firstHidden;
+
+    BookmarkBar(BookmarkStore store, Consumer<String> open, Consumer<String> openInBackground) {
+        this.open = open;
+        this.openInBackground = openInBackground;
+        chevron.setOnShowing(e -> {
+            List<BookmarkStore.Node> items = this.store.bar.children;
+            chevron.getItems().clear();
+            for (int i = firstHidden; i < items.size(); i++) chevron.getItems().add(menuItem(items.get(i)));
+        });
+        chevron.setVisible(false);
+        getChildren().add(chevron);
+        setMinWidth(0);
+        setStore(store);
+    }
+
+    // 启动时先是空的书签，后台读完后整个换掉
+    void setStore(BookmarkStore store) {
+        if (this.store != null) this.store.removeListener(listener);
+        this.store = store;
+        store.addListener(listener);
+        getChildren().removeAll(controls.values());
+        controls.clear();
+        requestLayout();
+    }
+
+    @Override
+    protected double computeMinWidth(double height) {
+        return chevron.prefWidth(-1);
+    }
+
+    // 首选宽度为 0，放在 HBox 里设为 Priority.ALWAYS，剩下多少空间就用多少
+    @Override
+    protected double computePrefWidth(double height) {
+        return 0;
+    }
+
+    @Override
+    protected double computePrefHeight(double width) {
+        return chevron.prefHeight(-1);
+    }
+
+    @Override
+    protected void layoutChildren() {
+        List<BookmarkStore.Node> items = store.bar.children;
+        double width = getWidth();
+        double height = getHeight();
+        double chevronWidth = chevron.prefWidth(-1);
+        double x = 0;
+        firstHidden = items.size();
+        for (int i = 0; i < items.size(); i++) {
+            Control c = control(items.get(i));
+            double w = c.prefWidth(-1);
+            // 最后一个不用给 » 留位置
+            double limit = i == items.size() - 1 ? width : width - chevronWidth - GAP;
+            if (x + w > limit) {
+                firstHidden = i;
+                break;
+            }
+            double h = Math.min(height, c.prefHeight(-1));
+            c.resizeRelocate(x, (height - h) / 2, w, h);
+            c.setVisible(true);
+            x += w + GAP;
+        }
+        for (int i = firstHidden; i < items.size(); i++) {
+            Control c = controls.get(items.get(i).id);
+            if (c != null) c.setVisible(false);
+        }
+        boolean overflow = firstHidden < items.size();
+        chevron.setVisible(overflow);
+        if (overflow) {
+            double h = Math.min(height, chevron.prefHeight(-1));
+            chevron.resizeRelocate(width - chevronWidth, (height - h) / 2, chevronWidth, h);
+        }
+    }
+
+    // 第一次排到这个书签时才建控件
+    private Control control(BookmarkStore.Node node) {
+        Control c = controls.get(node.id);
+        if (c != null) return c;
+        if (node.isFolder()) {
+            MenuButton folder = new MenuButton("📁 " + node.title);
+            folder.setOnShowing(e -> fill(folder.getItems(), node));
+            folder.setContextMenu(removeMenu(node, "删除文件夹"));
+            c = folder;
+        } else {
+            Hyperlink link = new Hyperlink(node.title);
+            link.setOnAction(e -> open.accept(node.url));
+            // 中键在后台打开，不切换标签页
+            link.setOnMouseClicked(e -> {
+                if (e.getButton() == MouseButton.MIDDLE) openInBackground.accept(node.url);
+            });
+            ContextMenu menu = removeMenu(node, "删除书签");
+            MenuItem background = new MenuItem("在后台标签页打开");
+            background.setOnAction(e -> openInBackground.accept(node.url));
+            menu.getItems().add(0, background);
+            link.setContextMenu(menu);
+            c = link;
+        }
+        controls.put(node.id, c);
+        getChildren().add(c);
+        // 新控件要先套上样式才量得出宽度
+        c.applyCss();
+        return c;
+    }
+
+    private ContextMenu removeMenu(BookmarkStore.Node node, String label) {
+        MenuItem remove = new MenuItem(label);
+        remove.setOnAction(e -> store.remove(node.id));
+        return new ContextMenu(remove);
+    }
+
+    private void fill(List<MenuItem> items, BookmarkStore.Node folder) {
+        items.clear();
+        for (BookmarkStore.Node child : folder.children) items.add(menuItem(child));
+        if (items.isEmpty()) {
+            MenuItem empty = new MenuItem("（空）");
+            empty.setDisable(true);
+            items.add(empty);
+        }
+    }
+
+    private MenuItem menuItem(BookmarkStore.Node node) {
+        if (!node.isFolder()) {
+            MenuItem item = new MenuItem(node.title);
+            item.setOnAction(e -> open.accept(node.url));
+            return item;
+        }
+        Menu sub = new Menu("📁 " + node.title);
+        // 子菜单里至少要有一项才会显示箭头，打开时再换成真正的内容
+        sub.getItems().add(new MenuItem("…"));
+        sub.setOnShowing(e -> fill(sub.getItems(), node));
+        return sub;
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+// 导入浏览器导出的 Netscape 格式书签 HTML（<DL><DT><H3>文件夹</H3><DL>…</DL><DT><A HREF>…</A>）。
+// 边读边解析，不把整个文件读进内存：标签的属性只留 HREF，ICON 之类几十 KB 的 data URL 直接跳过
+final class BookmarkImporter {
+    // 标题、网址的长度上限，防止坏文件把缓冲撑大
+    private static final int MAX_TEXT = 4096;
+    private static final int MAX_URL = 64 * 1024;
+
+    private final Reader in;
+    // 自己按块读，不一个字符一个字符地调 Reader.read
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+    private int pushedBack = -1;
+
+    private BookmarkImporter(Reader in) {
+        this.in = in;
+    }
+
+    // 返回一个名为 title 的文件夹，里面是导入的整棵树
+    static BookmarkStore.Draft parse(Reader in, String title) throws IOException {
+        return new BookmarkImporter(in).run(title);
+    }
+
+    static int countBookmarks(BookmarkStore.Draft folder) {
+        int n = 0;
+        for (BookmarkStore.Draft d : folder.children()) n += d.children() == null ? 1 : countBookmarks(d);
+        return n;
+    }
+
+    private BookmarkStore.Draft run(String title) throws IOException {
+        BookmarkStore.Draft root = BookmarkStore.Draft.folder(title);
+        Deque<BookmarkStore.Draft> folders = new ArrayDeque<>();
+        folders.push(root);
+        // 刚读到 <H3> 的文件夹，等下一个 <DL> 才进去
+        BookmarkStore.Draft pendingFolder = null;
+        String href = null;
+        StringBuilder text = null;
+        StringBuilder tag = new StringBuilder();
+        int c;
+        while ((c = read()) != -1) {
+            if (c != '<') {
+                if (text != null && text.length() < MAX_TEXT) text.append((char) c);
+                continue;
+            }
+            String name = readTag(tag);
+            if (name == null) continue;
+            switch (name) {
+                case "h3" -> {
+                    pendingFolder = null;
+                    text = new StringBuilder();
+                }
+                case "/h3" -> {
+                    if (text != null) {
+                        pendingFolder = BookmarkStore.Draft.folder(clean(text));
+                        folders.peek().children().add(pendingFolder);
+                        text = null;
+                    }
+                }
+                case "a" -> {
+                    href = tag.isEmpty() ? null : tag.toString();
+                    text = new StringBuilder();
+                }
+                case "/a" -> {
+                    if (href != null && text != null) {
+                        String url = decode(href);
+                        String t = clean(text);
+                        folders.peek().children().add(BookmarkStore.Draft.bookmark(t.isEmpty() ? url : t, url));
+                    }
+                    href = null;
+                    text = null;
+                }
+                case "dl" -> {
+                    // 紧跟在 <H3> 后面的 <DL> 是这个文件夹的内容；最外层的 <DL> 就是导入的文件夹本身
+                    folders.push(pendingFolder != null ? pendingFolder : folders.peek());
+                    pendingFolder = null;
+                }
+                case "/dl" -> {
+                    if (folders.size() > 1) folders.pop();
+                }
+                default -> { }
+            }
+        }
+        return root;
+    }
+
+    // 读 '<' 之后的标签，返回小写标签名（结束标签带 '/'）；a 标签的 HREF 放进 href
+    private String readTag(StringBuilder href) throws IOException {
+        href.setLength(0);
+        int c = read();
+        if (c == '!' || c == '?') {
+            skipUntil('>');
+            return null;
+        }
+        StringBuilder name = new StringBuilder();
+        while (c != -1 && c != '>' && !Character.isWhitespace(c)) {
+            if (name.length() < 16) name.append((char) c);
+            c = read();
+        }
+        String tagName = name.toString().toLowerCase(Locale.ROOT);
+        if (c == '>' || c == -1) return tagName;
+        // 属性：name=value、name="value" 或者只有 name
+        while (true) {
+            c = skipSpaces();
+            if (c == -1 || c == '>') return tagName;
+            StringBuilder attr = new StringBuilder();
+            while (c != -1 && c != '=' && c != '>' && !Character.isWhitespace(c)) {
+                if (attr.length() < 32) attr.append((char) c);
+                c = read();
+            }
+            if (Character.isWhitespace(c)) c = skipSpaces();
+            if (c != '=') {
+                if (c == '>' || c == -1) return tagName;
+                pushedBack = c;
+                continue;
+            }
+            boolean keep = tagName.equals("a") && attr.toString().equalsIgnoreCase("href");
+            readValue(keep ? href : null);
+        }
+    }
+
+    private void readValue(StringBuilder into) throws IOException {
+        int c = skipSpaces();
+        if (c == '"' || c == '\'') {
+            int quote = c;
+            while ((c = read()) != -1 && c != quote) {
+                if (into != null && into.length() < MAX_URL) into.append((char) c);
+            }
+            return;
+        }
+        while (c != -1 && c != '>' && !Character.isWhitespace(c)) {
+            if (into != null && into.length() < MAX_URL) into.append((char) c);
+            c = read();
+        }
+        if (c == '>') pushedBack = c;
+    }
+
+    private int skipSpaces() throws IOException {
+        int c = read();
+        while (c != -1 && Character.isWhitespace(c)) c = read();
+        return c;
+    }
+
+    private void skipUntil(int end) throws IOException {
+        int c;
+        while ((c = read()) != -1 && c != end) {
+            // 跳过
+        }
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != -1) {
+            int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        if (pos == limit) {
+            limit = in.read(buf, 0, buf.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buf[pos++];
+    }
+
+    private static String clean(CharSequence text) {
+        return decode(text.toString().replaceAll("\\s+", " ").trim());
+    }
+
+    // 只处理导出文件里会出现的几种实体
+    static String decode(String s) {
+        if (s.indexOf('&') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            int semi = ch == '&' ? s.indexOf(';', i) : -1;
+            if (semi < 0 || semi - i > 10) {
+                sb.append(ch);
+                continue;
+            }
+            String entity = s.substring(i + 1, semi);
+            String replaced = switch (entity) {
+                case "amp" -> "&";
+                case "lt" -> "<";
+                case "gt" -> ">";
+                case "quot" -> "\"";
+                case "apos" -> "'";
+                case "nbsp" -> " ";
+                default -> numeric(entity);
+            };
+            if (replaced == null) {
+                sb.append(ch);
+                continue;
+            }
+            sb.append(replaced);
+            i = semi;
+        }
+        return sb.toString();
+    }
+
+    private static String numeric(String entity) {
+        try {
+            if (entity.startsWith("#x") || entity.startsWith("#X")) return Character.toString(Integer.parseInt(entity.substring(2), 16));
+            if (entity.startsWith("#")) return Character.toString(Integer.parseInt(entity.substring(1)));
+        } catch (IllegalArgumentException e) {
+            /* 不是合法的码点 */
+        }
+        return null;
+    }
+}
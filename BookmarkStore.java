@@ -0,0 +1,267 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+// 书签：文件夹组成的树，每个节点有一个不会变的 id。根下固定两个文件夹：书签栏和其他书签。
+// 读文件可以在后台线程上做；交出去以后只在 FX 线程上修改，每次改动通过 Listener 通知，
+// 书签栏按改动只动自己那一项
+class BookmarkStore {
+    static final long BAR_ID = 1;
+    static final long OTHER_ID = 2;
+
+    static final class Node {
+        final long id;
+        String title;
+        // 文件夹的 url 为 null，书签的 children 为 null
+        final String url;
+        final List<Node> children;
+        Node parent;
+
+        private Node(long id, String title, String url, List<Node> children) {
+            this.id = id;
+            this.title = title;
+            this.url = url;
+            this.children = children;
+        }
+
+        boolean isFolder() {
+            return children != null;
+        }
+    }
+
+    // 还没放进书签树的节点，导入时在后台先拼好
+    record Draft(String title, String url, List<Draft> children) {
+        static Draft folder(String title) {
+            return new Draft(title, null, new ArrayList<>());
+        }
+
+        static Draft bookmark(String title, String url) {
+            return new Draft(title, url, null);
+        }
+    }
+
+    // 写盘用的只读拷贝
+    record Saved(long id, String title, String url, List<Saved> children) {
+    }
+
+    interface Listener {
+        void added(Node parent, int index, Node node);
+
+        void removed(Node parent, int index, Node node);
+
+        void renamed(Node node);
+    }
+
+    private final Map<Long, Node> byId = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    final Node bar;
+    final Node other;
+    private long nextId = OTHER_ID + 1;
+
+    BookmarkStore() {
+        bar = register(new Node(BAR_ID, "书签栏", null, new ArrayList<>()), null);
+        other = register(new Node(OTHER_ID, "其他书签", null, new ArrayList<>()), null);
+    }
+
+    void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    Node addBookmark(Node parent, String title, String url) {
+        return insert(parent, parent.children.size(), new Node(nextId++, title, url, null));
+    }
+
+    Node addFolder(Node parent, String title) {
+        return insert(parent, parent.children.size(), new Node(nextId++, title, null, new ArrayList<>()));
+    }
+
+    // 整棵导入的树只算一次改动，监听者只收到一条通知
+    Node adopt(Node parent, Draft draft) {
+        return insert(parent, parent.children.size(), build(draft));
+    }
+
+    void remove(long id) {
+        Node node = byId.get(id);
+        if (node == null || node.parent == null) return;
+        Node parent = node.parent;
+        int index = parent.children.indexOf(node);
+        parent.children.remove(index);
+        unregister(node);
+        for (Listener l : listeners) l.removed(parent, index, node);
+    }
+
+    void rename(long id, String title) {
+        Node node = byId.get(id);
+        if (node == null || title.equals(node.title)) return;
+        node.title = title;
+        for (Listener l : listeners) l.renamed(node);
+    }
+
+    // 所有书签（不含文件夹），按树里的顺序
+    void forEachBookmark(BiConsumer<String, String> action) {
+        visit(bar, action);
+        visit(other, action);
+    }
+
+    // 写盘用的快照：在 FX 线程上拷一份，序列化交给后台
+    List<Saved> snapshot() {
+        return List.of(copy(bar), copy(other));
+    }
+
+    static void write(Writer out, List<Saved> snapshot) throws IOException {
+        JsonWriter w = new JsonWriter(out, true);
+        w.beginObject().name("version").value(2);
+        w.name("bar");
+        writeNode(w, snapshot.get(0));
+        w.name("other");
+        writeNode(w, snapshot.get(1));
+        w.endObject().flush();
+    }
+
+    // 新格式是 {"bar": 文件夹, "other": 文件夹}；旧版的平铺数组整个放进书签栏
+    static BookmarkStore read(Reader in) throws IOException {
+        BookmarkStore store = new BookmarkStore();
+        JsonReader r = new JsonReader(in);
+        if (r.peek() == JsonReader.Token.BEGIN_ARRAY) {
+            r.beginArray();
+            while (r.hasNext()) store.readNode(r, store.bar);
+            r.endArray();
+        } else {
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "bar" -> store.readChildren(r, store.bar);
+                    case "other" -> store.readChildren(r, store.other);
+                    default -> r.skipValue();
+                }
+            }
+            r.endObject();
+        }
+        return store;
+    }
+
+    // 读一个固定文件夹，只要它的 children
+    private void readChildren(JsonReader r, Node folder) throws IOException {
+        r.beginObject();
+        while (r.hasNext()) {
+            if (r.nextName().equals("children")) {
+                r.beginArray();
+                while (r.hasNext()) readNode(r, folder);
+                r.endArray();
+            } else {
+                r.skipValue();
+            }
+        }
+        r.endObject();
+    }
+
+    private void readNode(JsonReader r, Node parent) throws IOException {
+        long id = -1;
+        String title = "", url = null;
+        // 子节点先挂在一个临时文件夹下，读完整个对象才知道自己是不是文件夹
+        Node holder = null;
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (r.peek() == JsonReader.Token.NULL) {
+                r.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "id" -> id = r.nextLong();
+                case "title" -> title = r.nextString();
+                case "url" -> url = r.nextString();
+                case "children" -> {
+                    holder = new Node(-1, "", null, new ArrayList<>());
+                    r.beginArray();
+                    while (r.hasNext()) readNode(r, holder);
+                    r.endArray();
+                }
+                default -> r.skipValue();
+            }
+        }
+        r.endObject();
+        if (holder == null && (url == null || url.isEmpty())) return;
+        // 文件里的 id 缺了或者重复了就重新分配
+        if (id <= OTHER_ID || byId.containsKey(id)) id = nextId;
+        nextId = Math.max(nextId, id + 1);
+        Node node = holder == null ? new Node(id, title, url, null) : new Node(id, title, null, holder.children);
+        byId.put(id, node);
+        node.parent = parent;
+        parent.children.add(node);
+        if (holder != null) {
+            for (Node child : node.children) child.parent = node;
+        }
+    }
+
+    private Node insert(Node parent, int index, Node node) {
+        if (!parent.isFolder()) throw new IllegalArgumentException("不是文件夹: " + parent.title);
+        parent.children.add(index, node);
+        register(node, parent);
+        for (Listener l : listeners) l.added(parent, index, node);
+        return node;
+    }
+
+    private Node build(Draft draft) {
+        if (draft.children() == null) return new Node(nextId++, draft.title(), draft.url(), null);
+        Node folder = new Node(nextId++, draft.title(), null, new ArrayList<>());
+        for (Draft child : draft.children()) {
+            Node n = build(child);
+            n.parent = folder;
+            folder.children.add(n);
+        }
+        return folder;
+    }
+
+    private Node register(Node node, Node parent) {
+        node.parent = parent;
+        byId.put(node.id, node);
+        if (node.isFolder()) {
+            for (Node child : node.children) register(child, node);
+        }
+        return node;
+    }
+
+    private void unregister(Node node) {
+        byId.remove(node.id);
+        if (node.isFolder()) {
+            for (Node child : node.children) unregister(child);
+        }
+    }
+
+    private static void visit(Node folder, BiConsumer<String, String> action) {
+        for (Node n : folder.children) {
+            if (n.isFolder()) visit(n, action);
+            else action.accept(n.title, n.url);
+        }
+    }
+
+    private static Saved copy(Node node) {
+        if (!node.isFolder()) return new Saved(node.id, node.title, node.url, null);
+        List<Saved> children = new ArrayList<>(node.children.size());
+        for (Node child : node.children) children.add(copy(child));
+        return new Saved(node.id, node.title, null, children);
+    }
+
+    private static void writeNode(JsonWriter w, Saved node) throws IOException {
+        w.beginObject().name("id").value(node.id()).name("title").value(node.title());
+        if (node.children() == null) {
+            w.name("url").value(node.url());
+        } else {
+            w.name("children").beginArray();
+            for (Saved child : node.children()) writeNode(w, child);
+            w.endArray();
+        }
+        w.endObject();
+    }
+}
@@ -0,0 +1,480 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.CacheRequest;
+import java.net.CacheResponse;
+import java.net.ResponseCache;
+import java.net.SecureCacheResponse;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+// 广告和跟踪器拦截：包在网页缓存外面的 ResponseCache，每个带 Referer 的子资源请求先过一遍规则，
+// 命中的直接返回一个空响应，不会真的发出去。规则来自 ~/.lantern/filters 下的 *.txt（hosts 文件、
+// 一行一个域名或者 Adblock 格式都行）加上几条内置的，第一次有请求时才在后台读取编译：
+// 域名规则放进按标签倒序的字典树，网址片段规则编成一个 Aho-Corasick 自动机，每个请求只扫一遍网址
+class ContentBlocker extends ResponseCache {
+    interface Listener {
+        // 在加载线程上调用；pageHost 是发起请求的页面（Referer）的主机名
+        void blocked(String pageHost, String url);
+    }
+
+    private static final List<String> BUILT_IN = List.of(
+            "||doubleclick.net^", "||googlesyndication.com^", "||google-analytics.com^", "||googletagmanager.com^",
+            "||googleadservices.com^", "||adservice.google.com^", "||scorecardresearch.com^", "||hm.baidu.com^",
+            "||pos.baidu.com^", "||cpro.baidu.com^", "||cnzz.com^", "||umeng.com^", "||mmstat.com^");
+    // 只认这些选项；带别的选项的规则宁可不用，免得误伤。资源类型（script、image 之类）在这里看不出来，
+    // 当成不认识的选项：按类型收窄的规则拿来拦所有请求，会把不该拦的也拦了
+    private static final Set<String> KNOWN_OPTIONS = Set.of("third-party", "3p", "all");
+    // 这些二级域名下面才是一个站点：example.com.cn 和 other.com.cn 不是同一家
+    private static final Set<String> SECOND_LEVEL = Set.of("com", "net", "org", "gov", "edu", "co", "ac", "or", "ne", "go");
+    private static final int MIN_PATTERN_LENGTH = 4;
+
+    private final Path dir;
+    private final ResponseCache delegate;
+    private final AtomicBoolean loadStarted = new AtomicBoolean();
+    private volatile Rules rules;
+    private volatile boolean enabled;
+    private volatile Listener listener = (host, url) -> { };
+    private volatile long loadMillis;
+    final AtomicLong checked = new AtomicLong();
+    final AtomicLong blocked = new AtomicLong();
+    final AtomicLong matchNanos = new AtomicLong();
+
+    ContentBlocker(Path dir, ResponseCache delegate, boolean enabled) {
+        this.dir = dir;
+        this.delegate = delegate;
+        this.enabled = enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    String statsText() {
+        Rules r = rules;
+        if (r == null) return enabled ? "规则还没加载" : "已关闭";
+        long n = checked.get();
+        return String.format("规则 %d 条（加载用了 %d ms），检查 %d 个请求，拦截 %d 个，平均每个 %.1f 微秒",
+                r.count, loadMillis, n, blocked.get(), n == 0 ? 0.0 : matchNanos.get() / 1000.0 / n);
+    }
+
+    @Override
+    public CacheResponse get(URI uri, String method, Map<String, List<String>> requestHeaders) throws IOException {
+        if (enabled) {
+            Rules r = rules;
+            if (r == null) {
+                startLoading();
+            } else {
+                // 没有 Referer 的一般是用户自己打开的页面，不拦
+                String referer = first(requestHeaders, "Referer");
+                if (referer != null && uri.getHost() != null) {
+                    long start = System.nanoTime();
+                    String host = uri.getHost().toLowerCase(Locale.ROOT);
+                    String pageHost = hostOf(referer);
+                    boolean thirdParty = pageHost == null || !siteOf(host).equals(siteOf(pageHost));
+                    boolean hit = r.blocks(host, uri.toString().toLowerCase(Locale.ROOT), thirdParty);
+                    matchNanos.addAndGet(System.nanoTime() - start);
+                    checked.incrementAndGet();
+                    if (hit) {
+                        blocked.incrementAndGet();
+                        if (pageHost != null) listener.blocked(pageHost, uri.toString());
+                        return "https".equalsIgnoreCase(uri.getScheme()) ? new SecureBlocked() : new Blocked();
+                    }
+                }
+            }
+        }
+        return delegate == null ? null : delegate.get(uri, method, requestHeaders);
+    }
+
+    @Override
+    public CacheRequest put(URI uri, URLConnection conn) throws IOException {
+        return delegate == null ? null : delegate.put(uri, conn);
+    }
+
+    private void startLoading() {
+        if (!loadStarted.compareAndSet(false, true)) return;
+        Thread.ofVirtual().name("lantern-filters").start(() -> {
+            long start = System.nanoTime();
+            Rules r = new Rules();
+            for (String line : BUILT_IN) r.add(line);
+            if (Files.isDirectory(dir)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.txt")) {
+                    for (Path file : files) {
+                        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                            String line;
+                            while ((line = in.readLine()) != null) r.add(line);
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("读取拦截规则失败: " + e.getMessage());
+                }
+            }
+            r.compile();
+            loadMillis = (System.nanoTime() - start) / 1_000_000;
+            rules = r;
+        });
+    }
+
+    // 编译好的规则；拦截和例外（@@）各一套，只管第三方请求（$third-party）的域名规则单独放一棵树
+    static final class Rules {
+        private final DomainTrie blockedDomains = new DomainTrie();
+        private final DomainTrie allowedDomains = new DomainTrie();
+        private final DomainTrie blockedThirdPartyDomains = new DomainTrie();
+        private final DomainTrie allowedThirdPartyDomains = new DomainTrie();
+        private final PatternMatcher blockedPatterns = new PatternMatcher();
+        private final PatternMatcher allowedPatterns = new PatternMatcher();
+        int count;
+
+        // thirdParty：请求的站点和发起请求的页面不是同一个
+        boolean blocks(String host, String url, boolean thirdParty) {
+            if (!blockedDomains.matches(host) && !(thirdParty && blockedThirdPartyDomains.matches(host))
+                    && !blockedPatterns.matches(host, url, thirdParty)) return false;
+            return !allowedDomains.matches(host) && !(thirdParty && allowedThirdPartyDomains.matches(host))
+                    && !allowedPatterns.matches(host, url, thirdParty);
+        }
+
+        void add(String raw) {
+            String line = raw.trim().toLowerCase(Locale.ROOT);
+            if (line.isEmpty() || line.startsWith("!") || line.startsWith("[") || line.startsWith("#")) return;
+            // 元素隐藏规则和正则规则不处理
+            if (line.contains("##") || line.contains("#@#") || line.contains("#?#")
+                    || (line.length() > 1 && line.startsWith("/") && line.endsWith("/"))) return;
+            boolean exception = line.startsWith("@@");
+            if (exception) line = line.substring(2);
+            PatternMatcher patterns = exception ? allowedPatterns : blockedPatterns;
+
+            // hosts 文件：0.0.0.0 example.com
+            if (line.startsWith("0.0.0.0 ") || line.startsWith("127.0.0.1 ") || line.startsWith("0.0.0.0\t")
+                    || line.startsWith("127.0.0.1\t")) {
+                String[] fields = line.split("\\s+");
+                if (fields.length >= 2 && isDomain(fields[1]) && !fields[1].equals("localhost")) {
+                    (exception ? allowedDomains : blockedDomains).add(fields[1]);
+                    count++;
+                }
+                return;
+            }
+            boolean thirdParty = false;
+            int dollar = line.indexOf('$');
+            if (dollar >= 0) {
+                for (String option : line.substring(dollar + 1).split(",")) {
+                    option = option.trim();
+                    if (!KNOWN_OPTIONS.contains(option)) return;
+                    if (!option.equals("all")) thirdParty = true;
+                }
+                line = line.substring(0, dollar);
+            }
+            DomainTrie domains = thirdParty
+                    ? (exception ? allowedThirdPartyDomains : blockedThirdPartyDomains)
+                    : (exception ? allowedDomains : blockedDomains);
+            if (line.startsWith("||")) {
+                String rest = line.substring(2);
+                int end = 0;
+                while (end < rest.length() && "^/*|:".indexOf(rest.charAt(end)) < 0) end++;
+                String domain = rest.substring(0, end);
+                String tail = rest.substring(end);
+                if (!isDomain(domain)) return;
+                if (tail.isEmpty() || tail.equals("^") || tail.equals("^|")) {
+                    domains.add(domain);
+                } else {
+                    String[] parts = parts(tail);
+                    if (parts.length == 0) domains.add(domain);
+                    else patterns.add(domain, parts, thirdParty);
+                }
+                count++;
+                return;
+            }
+            // 纯域名列表
+            if (isDomain(line)) {
+                domains.add(line);
+                count++;
+                return;
+            }
+            String[] parts = parts(line);
+            int literal = 0;
+            for (String p : parts) literal = Math.max(literal, p.length());
+            if (literal < MIN_PATTERN_LENGTH) return;
+            patterns.add(null, parts, thirdParty);
+            count++;
+        }
+
+        void compile() {
+            blockedPatterns.compile();
+            allowedPatterns.compile();
+        }
+
+        // * 和 ^ 当作任意内容，| 锚点忽略，剩下的字面片段要按顺序出现
+        private static String[] parts(String pattern) {
+            List<String> parts = new ArrayList<>();
+            for (String p : pattern.split("[*^|]")) if (!p.isEmpty()) parts.add(p);
+            return parts.toArray(new String[0]);
+        }
+
+        private static boolean isDomain(String s) {
+            if (s.isEmpty() || s.indexOf('.') < 0 || s.startsWith(".") || s.endsWith(".")) return false;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '.' && c != '-' && c != '_') return false;
+            }
+            return true;
+        }
+    }
+
+    // 按标签倒序的字典树：com → example → ads；走到任何一个终点都算命中，子域名跟着一起拦
+    static final class DomainTrie {
+        private static final class Node {
+            Map<String, Node> children;
+            boolean terminal;
+        }
+
+        private final Node root = new Node();
+
+        void add(String domain) {
+            Node node = root;
+            int end = domain.length();
+            while (end > 0) {
+                int dot = domain.lastIndexOf('.', end - 1);
+                String label = domain.substring(dot + 1, end);
+                if (node.children == null) node.children = new HashMap<>(4);
+                node = node.children.computeIfAbsent(label, k -> new Node());
+                // 已经拦了上级域名，更长的规则没有意义
+                if (node.terminal) return;
+                end = dot < 0 ? 0 : dot;
+            }
+            node.terminal = true;
+            node.children = null;
+        }
+
+        boolean matches(String host) {
+            Node node = root;
+            int end = host.length();
+            while (end > 0 && node.children != null) {
+                int dot = host.lastIndexOf('.', end - 1);
+                node = node.children.get(host.substring(dot + 1, end));
+                if (node == null) return false;
+                if (node.terminal) return true;
+                end = dot < 0 ? 0 : dot;
+            }
+            return false;
+        }
+    }
+
+    // 网址片段规则：每条规则取最长的片段放进 Aho-Corasick 自动机，扫描网址时一次找出所有候选，
+    // 候选规则再按顺序核对全部片段和域名
+    static final class PatternMatcher {
+        private record Rule(String domain, String[] parts, boolean thirdParty) {
+        }
+
+        private final List<Rule> rules = new ArrayList<>();
+        private final List<String> keys = new ArrayList<>();
+        // 编译后的自动机：状态 s 的出边是 labels[s] 里的字符（排好序）到 targets[s] 的对应状态
+        private char[][] labels;
+        private int[][] targets;
+        private int[] fail;
+        // 状态 s 上结束的规则，以及沿失败链能找到的下一个有规则结束的状态
+        private int[][] outputs;
+        private int[] outLink;
+
+        void add(String domain, String[] parts, boolean thirdParty) {
+            String key = parts[0];
+            for (String p : parts) if (p.length() > key.length()) key = p;
+            rules.add(new Rule(domain, parts, thirdParty));
+            keys.add(key);
+        }
+
+        void compile() {
+            List<Map<Character, Integer>> edges = new ArrayList<>();
+            List<List<Integer>> out = new ArrayList<>();
+            edges.add(new HashMap<>());
+            out.add(new ArrayList<>());
+            for (int i = 0; i < keys.size(); i++) {
+                int s = 0;
+                for (char c : keys.get(i).toCharArray()) {
+                    Integer next = edges.get(s).get(c);
+                    if (next == null) {
+                        next = edges.size();
+                        edges.get(s).put(c, next);
+                        edges.add(new HashMap<>(2));
+                        out.add(new ArrayList<>(0));
+                    }
+                    s = next;
+                }
+                out.get(s).add(i);
+            }
+            int n = edges.size();
+            labels = new char[n][];
+            targets = new int[n][];
+            outputs = new int[n][];
+            for (int s = 0; s < n; s++) {
+                Character[] cs = edges.get(s).keySet().toArray(new Character[0]);
+                Arrays.sort(cs);
+                labels[s] = new char[cs.length];
+                targets[s] = new int[cs.length];
+                for (int i = 0; i < cs.length; i++) {
+                    labels[s][i] = cs[i];
+                    targets[s][i] = edges.get(s).get(cs[i]);
+                }
+                outputs[s] = out.get(s).stream().mapToInt(Integer::intValue).toArray();
+            }
+            fail = new int[n];
+            outLink = new int[n];
+            Arrays.fill(outLink, -1);
+            // 按层广度优先算失败链
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int t : targets[0]) queue.add(t);
+            while (!queue.isEmpty()) {
+                int s = queue.poll();
+                for (int i = 0; i < labels[s].length; i++) {
+                    char c = labels[s][i];
+                    int t = targets[s][i];
+                    int f = fail[s];
+                    while (f != 0 && next(f, c) < 0) f = fail[f];
+                    int g = next(f, c);
+                    fail[t] = g >= 0 && g != t ? g : 0;
+                    outLink[t] = outputs[fail[t]].length > 0 ? fail[t] : outLink[fail[t]];
+                    queue.add(t);
+                }
+            }
+        }
+
+        boolean matches(String host, String url, boolean thirdParty) {
+            if (labels == null || keys.isEmpty()) return false;
+            int s = 0;
+            for (int i = 0; i < url.length(); i++) {
+                char c = url.charAt(i);
+                int t;
+                while ((t = next(s, c)) < 0 && s != 0) s = fail[s];
+                s = Math.max(t, 0);
+                for (int o = outputs[s].length > 0 ? s : outLink[s]; o >= 0; o = outLink[o]) {
+                    for (int rule : outputs[o]) if (verify(rules.get(rule), host, url, thirdParty)) return true;
+                }
+            }
+            return false;
+        }
+
+        private int next(int s, char c) {
+            int i = Arrays.binarySearch(labels[s], c);
+            return i < 0 ? -1 : targets[s][i];
+        }
+
+        private static boolean verify(Rule rule, String host, String url, boolean thirdParty) {
+            if (rule.thirdParty() && !thirdParty) return false;
+            if (rule.domain() != null && !host.equals(rule.domain()) && !host.endsWith("." + rule.domain())) return false;
+            int from = 0;
+            for (String part : rule.parts()) {
+                int at = url.indexOf(part, from);
+                if (at < 0) return false;
+                from = at + part.length();
+            }
+            return true;
+        }
+    }
+
+    // 被拦下的请求拿到一个空的 200 响应，页面那边当作加载成功、内容为空
+    private static class Blocked extends CacheResponse {
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            Map<String, List<String>> headers = new HashMap<>();
+            headers.put(null, List.of("HTTP/1.1 200 OK"));
+            headers.put("Content-Length", List.of("0"));
+            headers.put("Cache-Control", List.of("no-store"));
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    // https 请求只认 SecureCacheResponse；空响应没有证书
+    private static final class SecureBlocked extends SecureCacheResponse {
+        private final Blocked blocked = new Blocked();
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return blocked.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() {
+            return blocked.getBody();
+        }
+
+        @Override
+        public String getCipherSuite() {
+            return "";
+        }
+
+        @Override
+        public List<Certificate> getLocalCertificateChain() {
+            return null;
+        }
+
+        @Override
+        public List<Certificate> getServerCertificateChain() throws SSLPeerUnverifiedException {
+            throw new SSLPeerUnverifiedException("被拦截的请求没有证书");
+        }
+
+        @Override
+        public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+            throw new SSLPeerUnverifiedException("被拦截的请求没有证书");
+        }
+
+        @Override
+        public Principal getLocalPrincipal() {
+            return null;
+        }
+    }
+
+    static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? null : host.toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // 主机所属的站点，没有公共后缀表，按最后两段（二级域名是 com.cn、co.uk 这种时取三段）近似
+    static String siteOf(String host) {
+        if (host.isEmpty() || Character.isDigit(host.charAt(host.length() - 1))) return host;
+        int last = host.lastIndexOf('.');
+        if (last <= 0) return host;
+        int second = host.lastIndexOf('.', last - 1);
+        if (second < 0) return host;
+        if (host.length() - last - 1 == 2 && SECOND_LEVEL.contains(host.substring(second + 1, last))) {
+            int third = host.lastIndexOf('.', second - 1);
+            return third < 0 ? host : host.substring(third + 1);
+        }
+        return host.substring(second + 1);
+    }
+
+    private static String first(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> h : headers.entrySet()) {
+            if (name.equalsIgnoreCase(h.getKey()) && !h.getValue().isEmpty()) return h.getValue().get(0);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,62 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// 边下边算 SHA-256。SHA-256 只能从头按顺序算，所以摘要只跟着“从文件开头起连续写好的部分”（前沿）往前走：
+// 正好写在前沿上的数据直接从下载缓冲区算进去；其他分段先写到盘上的数据，等前沿追上时再从文件里读回来，
+// 刚写过的数据一般还在页缓存里。多段下载最后也只得到一个摘要，下完不用把整个文件再读一遍
+final class DownloadDigest {
+    private final MessageDigest sha;
+    // [0, frontier) 已经算进摘要
+    private long frontier;
+    private ByteBuffer readBack;
+
+    DownloadDigest() {
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 单线程下载：数据总是按顺序来的
+    synchronized void update(byte[] data, int offset, int length) {
+        sha.update(data, offset, length);
+        frontier += length;
+    }
+
+    // data 刚写到文件的 at 处；同一个分段里 [segmentStart, at) 也已经写好。
+    // 前沿在这个分段之前时什么也不做，等前面的分段写完再从文件里补
+    synchronized void update(FileChannel channel, long segmentStart, long at, ByteBuffer data) throws IOException {
+        if (frontier < segmentStart || frontier > at) return;
+        if (frontier < at) catchUp(channel, at);
+        frontier += data.remaining();
+        sha.update(data);
+    }
+
+    // [frontier, upTo) 都已经写到文件里了，读回来补进摘要
+    synchronized void catchUp(FileChannel channel, long upTo) throws IOException {
+        if (frontier >= upTo) return;
+        if (readBack == null) readBack = ByteBuffer.allocateDirect(DownloadTask.BUFFER_SIZE);
+        while (frontier < upTo) {
+            readBack.clear();
+            readBack.limit((int) Math.min(readBack.capacity(), upTo - frontier));
+            int n = channel.read(readBack, frontier);
+            if (n < 0) throw new IOException("文件比下载进度短");
+            readBack.flip();
+            sha.update(readBack);
+            frontier += n;
+        }
+    }
+
+    synchronized long hashed() {
+        return frontier;
+    }
+
+    synchronized String finish() {
+        return HexFormat.of().formatHex(sha.digest());
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// 下载过的文件按内容登记在 ~/.lantern/download-index.json：SHA-256 → 磁盘上的文件，网址 + 强 ETag → SHA-256。
+// 同一个文件再下载时直接从本地那份复制过去，不用再联网。文件的大小和修改时间也记下来，对不上说明文件被动过，这条就作废。
+// 第一次用到时才读文件；下载线程都会来查，所有方法都加锁
+class DownloadIndex {
+    record Entry(String sha256, long size, long modified, Path path) {
+    }
+
+    // 把已有的文件复制到 target。不用硬链接：两个路径共用一份数据，改了或重新下载其中一个，另一个也跟着变了
+    static void materialize(Entry source, Path target) throws IOException {
+        if (source.path().equals(target)) return;
+        Files.createDirectories(target.getParent());
+        Files.copy(source.path(), target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private final Path file;
+    private final Map<String, String> byUrl = new HashMap<>();
+    private final Map<String, List<Entry>> byDigest = new HashMap<>();
+    private boolean loaded;
+    private int hits;
+    private long bytesSaved;
+
+    DownloadIndex(Path file) {
+        this.file = file;
+    }
+
+    // 弱 ETag 不保证内容逐字节相同，不能用来认文件
+    synchronized Entry find(String url, String etag, long size) {
+        if (etag == null || etag.isEmpty() || etag.startsWith("W/")) return null;
+        load();
+        String sha = byUrl.get(url + " " + etag);
+        Entry e = sha == null ? null : findByDigest(sha);
+        return e != null && (size <= 0 || e.size() == size) ? e : null;
+    }
+
+    // 第一个还在、没被改过的文件
+    synchronized Entry findByDigest(String sha256) {
+        load();
+        List<Entry> entries = byDigest.get(sha256);
+        if (entries == null) return null;
+        for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+            Entry e = it.next();
+            if (intact(e)) return e;
+            it.remove();
+        }
+        if (entries.isEmpty()) byDigest.remove(sha256);
+        return null;
+    }
+
+    synchronized void record(String url, String etag, String sha256, Path path) {
+        load();
+        try {
+            Entry entry = new Entry(sha256, Files.size(path), Files.getLastModifiedTime(path).toMillis(), path.toAbsolutePath());
+            List<Entry> entries = byDigest.computeIfAbsent(sha256, k -> new ArrayList<>());
+            entries.removeIf(e -> e.path().equals(entry.path()));
+            entries.add(entry);
+            if (etag != null && !etag.isEmpty() && !etag.startsWith("W/")) byUrl.put(url + " " + etag, sha256);
+            save();
+        } catch (IOException e) {
+            System.err.println("登记下载文件失败: " + e.getMessage());
+        }
+    }
+
+    synchronized void countHit(long size) {
+        hits++;
+        bytesSaved += size;
+    }
+
+    synchronized String statsText() {
+        int files = 0;
+        for (List<Entry> entries : byDigest.values()) files += entries.size();
+        return String.format("登记文件 %d 个，直接复用 %d 次，省下 %.1f MB", files, hits, bytesSaved / 1e6);
+    }
+
+    private boolean intact(Entry e) {
+        try {
+            return Files.size(e.path()) == e.size() && Files.getLastModifiedTime(e.path()).toMillis() == e.modified();
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!Files.exists(file)) return;
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonReader r = new JsonReader(in);
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "urls" -> {
+                        r.beginObject();
+                        while (r.hasNext()) {
+                            String key = r.nextName();
+                            byUrl.put(key, r.nextString());
+                        }
+                        r.endObject();
+                    }
+                    case "files" -> {
+                        r.beginArray();
+                        while (r.hasNext()) {
+                            Entry e = readEntry(r);
+                            if (e != null) byDigest.computeIfAbsent(e.sha256(), k -> new ArrayList<>()).add(e);
+                        }
+                        r.endArray();
+                    }
+                    default -> r.skipValue();
+                }
+            }
+            r.endObject();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("读取下载索引失败: " + e.getMessage());
+        }
+    }
+
+    private static Entry readEntry(JsonReader r) throws IOException {
+        String sha = null, path = null;
+        long size = -1, modified = -1;
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "sha256" -> sha = r.nextString();
+                case "size" -> size = r.nextLong();
+                case "modified" -> modified = r.nextLong();
+                case "path" -> path = r.nextString();
+                default -> r.skipValue();
+            }
+        }
+        r.endObject();
+        return sha == null || path == null ? null : new Entry(sha, size, modified, Paths.get(path));
+    }
+
+    // 文件很小，每次登记后整份重写
+    private void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        PersistenceService.writeAtomically(file, w -> {
+            JsonWriter out = new JsonWriter(w, true);
+            out.beginObject().name("urls").beginObject();
+            for (Map.Entry<String, String> e : byUrl.entrySet()) out.name(e.getKey()).value(e.getValue());
+            out.endObject().name("files").beginArray();
+            for (List<Entry> entries : byDigest.values()) {
+                for (Entry e : entries) {
+                    out.beginObject().name("sha256").value(e.sha256()).name("size").value(e.size())
+                            .name("modified").value(e.modified()).name("path").value(e.path().toString()).endObject();
+                }
+            }
+            out.endArray().endObject().flush();
+        });
+    }
+}
@@ -0,0 +1,298 @@
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// 全局下载调度：排队、限制同时进行的下载数和每个主机的连接数、总带宽限速。
+// 阻塞的网络读写都跑在专用的虚拟线程上，不占用公共 ForkJoinPool，页面加载和 AI 请求不会被饿死。
+// 所有下载共用一个 HttpClient：连接和 TLS 会话复用，服务器支持 HTTP/2 时同一主机的分段请求走同一条连接
+class DownloadScheduler {
+    static final long SAMPLE_MILLIS = 200;
+    static final long EXPORT_MILLIS = 5000;
+    static final long MAX_STATS_BYTES = 8L * 1024 * 1024;
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("lantern-download-", 0).factory());
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(15))
+            .executor(executor)
+            .build();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lantern-download-sampler");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Deque<DownloadTask> queue = new ArrayDeque<>();
+    private final Set<DownloadTask> running = ConcurrentHashMap.newKeySet();
+    // 新建和调整许可都在 synchronized (hostPermits) 里，调整时不会漏掉刚建的
+    private final Map<String, HostPermits> hostPermits = new ConcurrentHashMap<>();
+    private final TokenBucket globalBandwidth = new TokenBucket();
+    private volatile int maxConcurrent;
+    private volatile int maxPerHost;
+    // 每行一条 JSON 的统计文件，null 表示不导出
+    private final Path statsFile;
+    // 刚结束的任务的最终统计，等下一次导出时一起写
+    private final Queue<String> finishedStats = new ConcurrentLinkedQueue<>();
+
+    DownloadScheduler(int maxConcurrent, int maxPerHost, long maxBytesPerSecond, Path statsFile) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxPerHost = Math.max(1, maxPerHost);
+        this.statsFile = statsFile;
+        globalBandwidth.setRate(maxBytesPerSecond);
+        // 所有正在下载的任务共用一个采样线程，固定 5 次/秒把进度推给界面，和读了多少字节无关
+        sampler.scheduleAtFixedRate(this::sampleAll, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        if (statsFile != null) {
+            sampler.scheduleWithFixedDelay(this::exportStats, EXPORT_MILLIS, EXPORT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    ExecutorService executor() {
+        return executor;
+    }
+
+    HttpClient http() {
+        return http;
+    }
+
+    void submit(DownloadTask task) {
+        synchronized (this) {
+            if (running.contains(task) || queue.contains(task)) return;
+            queue.addLast(task);
+        }
+        Platform.runLater(() -> task.status.set("排队中..."));
+        pump();
+    }
+
+    private void pump() {
+        List<DownloadTask> toStart = new ArrayList<>();
+        synchronized (this) {
+            while (running.size() + toStart.size() < maxConcurrent && !queue.isEmpty()) {
+                DownloadTask next = queue.pollFirst();
+                if (!next.paused) toStart.add(next);
+            }
+            running.addAll(toStart);
+        }
+        for (DownloadTask task : toStart) {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    running.remove(task);
+                    // 取消的删文件，暂停途中又点了继续的重新排队
+                    task.afterRun();
+                    // 结束时再推一次最终的统计，界面上的进度不会停在最后一次采样
+                    DownloadTask.Stats last = task.snapshot(System.nanoTime());
+                    if (!task.cancelled) Platform.runLater(() -> task.stats.set(last));
+                    if (statsFile != null) finishedStats.add(statsLine(task, last, System.currentTimeMillis()));
+                    pump();
+                }
+            });
+        }
+    }
+
+    // 取消还在排队的任务
+    synchronized void remove(DownloadTask task) {
+        queue.remove(task);
+    }
+
+    synchronized int queued() {
+        return queue.size();
+    }
+
+    int active() {
+        return running.size();
+    }
+
+    void reconfigure(int maxConcurrent, int maxPerHost, long maxBytesPerSecond) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        globalBandwidth.setRate(maxBytesPerSecond);
+        synchronized (hostPermits) {
+            int delta = Math.max(1, maxPerHost) - this.maxPerHost;
+            this.maxPerHost += delta;
+            // 正在用的线程拿的还是这些 Semaphore，就地增减许可；调小时可用数可能是负的，连接还回来以后才放新的
+            for (HostPermits permits : hostPermits.values()) permits.resize(delta);
+        }
+        pump();
+    }
+
+    // 同一主机的连接数上限，按主机名分配许可
+    Semaphore hostPermits(String url) {
+        synchronized (hostPermits) {
+            return hostPermits.computeIfAbsent(hostOf(url), h -> new HostPermits(maxPerHost));
+        }
+    }
+
+    // reducePermits 是 protected 的，包一层才能在外面调小
+    private static final class HostPermits extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        HostPermits(int permits) {
+            super(permits);
+        }
+
+        void resize(int delta) {
+            if (delta > 0) release(delta);
+            else if (delta < 0) reducePermits(-delta);
+        }
+    }
+
+    static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? "" : host.toLowerCase();
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    // 读到的字节先过任务自己的限速，再过全局限速
+    void throttle(DownloadTask task, int bytes) throws InterruptedException {
+        task.bandwidth.acquire(bytes);
+        globalBandwidth.acquire(bytes);
+    }
+
+    private void sampleAll() {
+        if (running.isEmpty()) return;
+        long now = System.nanoTime();
+        List<Runnable> updates = new ArrayList<>(running.size());
+        for (DownloadTask task : running) {
+            Runnable update = task.sample(now);
+            if (update != null) updates.add(update);
+        }
+        // 一次采样只往 FX 线程投递一个任务，不管有多少下载、多少分段
+        if (!updates.isEmpty()) Platform.runLater(() -> updates.forEach(Runnable::run));
+    }
+
+    // 每 5 秒把正在下载和刚结束的任务的统计追加到统计文件，方便之后离线分析传输性能
+    private void exportStats() {
+        long now = System.nanoTime();
+        long wallClock = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = finishedStats.poll()) != null) sb.append(line).append('\n');
+        for (DownloadTask task : running) {
+            if (task.lastStats() != null) sb.append(statsLine(task, task.snapshot(now), wallClock)).append('\n');
+        }
+        if (sb.length() == 0) return;
+        try {
+            // 超过上限就把旧文件改名留一份，只保留最近的两份
+            if (Files.exists(statsFile) && Files.size(statsFile) > MAX_STATS_BYTES) {
+                Files.move(statsFile, statsFile.resolveSibling(statsFile.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            try (Writer w = Files.newBufferedWriter(statsFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                w.write(sb.toString());
+            }
+        } catch (IOException e) {
+            System.err.println("写入下载统计失败: " + e.getMessage());
+        }
+    }
+
+    static String statsLine(DownloadTask task, DownloadTask.Stats st, long time) {
+        StringWriter sw = new StringWriter(256 + st.segments().size() * 96);
+        try {
+            JsonWriter w = new JsonWriter(sw);
+            w.beginObject()
+                    .name("time").value(time)
+                    .name("url").value(task.url)
+                    .name("host").value(hostOf(task.url))
+                    .name("file").value(task.target.getFileName().toString())
+                    .name("state").value(task.cancelled ? "cancelled" : task.completed ? "completed"
+                            : task.running ? "running" : task.paused ? "paused" : "stopped")
+                    .name("done").value(st.done())
+                    .name("total").value(st.total())
+                    .name("bytesPerSecond").value(st.bytesPerSecond())
+                    .name("averageBytesPerSecond").value(st.averageBytesPerSecond())
+                    .name("etaSeconds").value(st.etaSeconds())
+                    .name("retries").value(st.retries())
+                    .name("workers").value(st.workers())
+                    .name("segments").beginArray();
+            for (DownloadTask.SegmentStats seg : st.segments()) {
+                w.beginObject()
+                        .name("start").value(seg.start())
+                        .name("end").value(seg.end())
+                        .name("done").value(seg.done())
+                        .name("bytesPerSecond").value(seg.bytesPerSecond())
+                        .name("retries").value(seg.retries())
+                        .endObject();
+            }
+            w.endArray().endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sw.toString();
+    }
+
+    // 退出时让所有下载停下来，各自把日志写好
+    void shutdown() {
+        synchronized (this) {
+            queue.clear();
+        }
+        for (DownloadTask task : running) task.pause();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(3, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sampler.shutdownNow();
+        http.shutdownNow();
+        if (statsFile != null) exportStats();
+    }
+
+    // 令牌桶限速：允许先欠账，读完一块再按欠下的字节数睡一会儿；速率为 0 表示不限速
+    static class TokenBucket {
+        private long bytesPerSecond;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        synchronized void setRate(long bytesPerSecond) {
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+            tokens = Math.min(tokens, this.bytesPerSecond);
+        }
+
+        synchronized long rate() {
+            return bytesPerSecond;
+        }
+
+        void acquire(int bytes) throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                if (bytesPerSecond <= 0) return;
+                long now = System.nanoTime();
+                // 最多攒 1 秒的令牌，避免空闲之后一下子冲太快
+                tokens = Math.min(bytesPerSecond, tokens + (now - last) * bytesPerSecond / 1e9);
+                last = now;
+                tokens -= bytes;
+                waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / bytesPerSecond);
+            }
+            if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,887 @@
+import javafx.application.Platform;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// 分段下载任务：所有分段共用一个 FileChannel 按位置写入；
+// 先干完活的线程会把预计最晚完成的分段后半截分走，线程数根据实测吞吐量逐步增加。
+// 每个分段写到哪里都记在 ~/.lantern/downloads 下的日志里，暂停或重启浏览器后从断点接着下。
+// SHA-256 边下边算（见 DownloadDigest），下完登记到 DownloadIndex；同一个文件再下时直接用本地那份。
+// 请求都走调度器共用的 HttpClient；不单独发 HEAD，第一个分段请求的响应头里就有大小和校验信息
+class DownloadTask {
+    static final int BUFFER_SIZE = 256 * 1024;
+    static final long MIN_SPLIT = 1024 * 1024;
+    static final int MAX_SEGMENTS = 16;
+    static final int MAX_RETRIES = 5;
+    static final long RETRY_BASE_MILLIS = 500;
+    static final long RETRY_MAX_MILLIS = 15_000;
+    // 服务器上的文件在下载途中变了（或者范围对不上）时，一次运行里最多从头再来几次
+    static final int MAX_RESTARTS = 3;
+
+    // 下载中心和统计导出用的快照，由采样线程生成，生成后不再修改
+    record Stats(long done, long total, long bytesPerSecond, long averageBytesPerSecond, long etaSeconds,
+                 int retries, int workers, List<SegmentStats> segments) {
+    }
+
+    record SegmentStats(long start, long end, long done, long bytesPerSecond, int retries) {
+    }
+
+    final String url;
+    final Path target;
+    final SimpleStringProperty status = new SimpleStringProperty("排队中...");
+    // 只在 FX 线程上更新，下载中心的每一行绑在这上面
+    final SimpleObjectProperty<Stats> stats = new SimpleObjectProperty<>();
+    volatile long totalSize = 0;
+    volatile boolean paused = false;
+    volatile boolean running = false;
+    volatile boolean cancelled = false;
+    volatile boolean completed = false;
+    // 下完算出的 SHA-256；expectedSha256 是用户给的校验值，可以在下载中途或下完以后再给
+    volatile String sha256;
+    volatile String expectedSha256;
+    // 只有拆分分段时才会写，读进度时不用加锁
+    final List<Segment> segments = new CopyOnWriteArrayList<>();
+    // 本次运行收到的字节数，各个线程都在加，用 LongAdder 避免抢同一个缓存行
+    final LongAdder received = new LongAdder();
+    volatile double bytesPerSecond;
+    volatile long etaSeconds = -1;
+    // 分段连接断开后重试的总次数
+    final AtomicInteger retries = new AtomicInteger();
+    // 单个任务的限速，0 表示不限
+    final DownloadScheduler.TokenBucket bandwidth = new DownloadScheduler.TokenBucket();
+    private final DownloadScheduler scheduler;
+    private final DownloadIndex index;
+    private volatile boolean publishing;
+    private long lastSampleAt;
+    private long lastSampleBytes;
+    private String lastPublished;
+    private volatile Stats lastStats;
+    private long runStartedAt;
+    private long runStartBytes;
+    private final List<CompletableFuture<Void>> workers = new ArrayList<>();
+    private final Path journal;
+    private String etag;
+    private String lastModified;
+    private volatile boolean validatorChanged;
+    // 从头下的分段下载也碰上了文件变化：这次运行剩下的尝试只用一个连接、不带 If-Range。只在下载线程上访问
+    private boolean singleConnection;
+    // 暂停后线程还没退完就又点了继续：等这次运行结束再重新排队。只在 synchronized (this) 里访问
+    private boolean restartRequested;
+    private FileChannel channel;
+    private DownloadDigest digest;
+
+    // 一个下载区间 [start, end]。position 只由当前负责的线程推进；end 可能被其他线程缩短（拆分时加锁）
+    static class Segment {
+        final long start;
+        volatile long end;
+        volatile long position;
+        boolean owned;
+        // 只由当前负责的线程修改
+        volatile int retries;
+        private final long resumedAt;
+        private final long startedAt = System.nanoTime();
+
+        Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+            this.resumedAt = position;
+        }
+
+        long remaining() {
+            return Math.max(0, end - position + 1);
+        }
+
+        long done() {
+            return Math.min(position, end + 1) - start;
+        }
+
+        double bytesPerSecond() {
+            double seconds = (System.nanoTime() - startedAt) / 1e9;
+            return seconds <= 0 ? 0 : (position - resumedAt) / seconds;
+        }
+    }
+
+    DownloadTask(String url, Path target, Path journalDir, DownloadScheduler scheduler, DownloadIndex index) {
+        this.url = url;
+        this.target = target;
+        this.scheduler = scheduler;
+        this.index = index;
+        this.journal = journalDir.resolve(UUID.nameUUIDFromBytes(
+                target.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8)) + ".journal");
+    }
+
+    // 把上次没下完的任务找回来，以暂停状态交给下载中心
+    static List<DownloadTask> loadJournals(Path journalDir, DownloadScheduler scheduler, DownloadIndex index) {
+        List<DownloadTask> tasks = new ArrayList<>();
+        if (!Files.isDirectory(journalDir)) return tasks;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(journalDir, "*.journal")) {
+            for (Path file : files) {
+                Properties p = new Properties();
+                try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    p.load(r);
+                }
+                String url = p.getProperty("url");
+                String target = p.getProperty("target");
+                if (url == null || target == null) continue;
+                DownloadTask task = new DownloadTask(url, Paths.get(target), journalDir, scheduler, index);
+                task.totalSize = Long.parseLong(p.getProperty("total", "0"));
+                String expected = p.getProperty("sha256.expected", "");
+                if (!expected.isEmpty()) task.expectedSha256 = expected;
+                task.paused = true;
+                task.restoreSegments(p);
+                task.stats.set(task.snapshot(0));
+                task.status.set(String.format("已暂停 %.1f MB / %.1f MB", task.downloaded() / 1e6, task.totalSize / 1e6));
+                tasks.add(task);
+            }
+        } catch (Exception e) {
+            System.err.println("读取下载日志失败: " + e.getMessage());
+        }
+        return tasks;
+    }
+
+    void start() {
+        scheduler.submit(this);
+    }
+
+    // 由调度器在下载线程上调用，结束后调度器再调 afterRun
+    void run() {
+        running = true;
+        singleConnection = false;
+        try {
+            for (int restarts = 0; download(); restarts++) {
+                if (restarts == MAX_RESTARTS) {
+                    Platform.runLater(() -> status.set("失败了: 服务器上的文件一直在变，稍后再试"));
+                    return;
+                }
+            }
+        } catch (Exception ex) {
+            Platform.runLater(() -> status.set("失败了: " + reason(ex)));
+        }
+    }
+
+    // 这次运行已经从调度器的运行列表里拿掉了，这时才能重新排队
+    void afterRun() {
+        boolean restart;
+        synchronized (this) {
+            running = false;
+            restart = restartRequested && !cancelled;
+            restartRequested = false;
+            if (restart) paused = false;
+        }
+        if (cancelled) discard();
+        else if (restart) start();
+    }
+
+    // 返回 true 表示下到的内容作废了，要从头再来一次
+    private boolean download() throws Exception {
+        // 给了校验值、本地又已经有这个内容的文件，连服务器都不用问
+        if (expectedSha256 != null && reuse(index.findByDigest(expectedSha256))) return false;
+        Semaphore permits = scheduler.hostPermits(url);
+        // 有日志时直接要第一个没下完的分段（带 If-Range），否则要 bytes=0-：响应头里就有总大小和校验信息
+        Properties saved = !singleConnection && Files.exists(journal) && Files.exists(target) ? readJournal() : null;
+        String savedValidator = saved == null ? null
+                : validator(saved.getProperty("etag", ""), saved.getProperty("lastModified", ""));
+        Segment pending = savedValidator == null ? null : firstUnfinished(saved);
+        permits.acquire();
+        HttpResponse<InputStream> first;
+        try {
+            first = pending == null ? get(0, -1, null) : get(pending.position, pending.end, savedValidator);
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+        // 第一个响应连同占着的连接名额要交给某个下载线程；还拿在手里就在 finally 里关掉、还回去
+        boolean holding = true;
+        boolean resumed;
+        try {
+            int code = first.statusCode();
+            long[] range = code == 206 ? contentRange(header(first, "Content-Range")) : null;
+            if (code != 200 && range == null) throw new IOException("服务器返回 " + code);
+            if (pending != null && code == 200) {
+                // If-Range 没对上，服务器返回了整个新文件：日志作废，这个响应就当作从头下载的第一个响应。
+                // 服务器声明支持分段、又给了长度的，照样分段下，这个响应体由第一个线程从 0 开始读
+                Files.deleteIfExists(journal);
+                pending = null;
+                long length = first.headers().firstValueAsLong("Content-Length").orElse(-1);
+                if ("bytes".equalsIgnoreCase(header(first, "Accept-Ranges")) && length > 0) range = new long[]{0, length};
+            } else if (pending != null && range[0] != pending.position) {
+                // 范围不对的 206，日志作废，从头来
+                Files.deleteIfExists(journal);
+                first.body().close();
+                permits.release();
+                holding = false;
+                return true;
+            }
+            String newEtag = header(first, "ETag");
+            String newLastModified = header(first, "Last-Modified");
+            long size = range != null ? range[1] : first.headers().firstValueAsLong("Content-Length").orElse(-1);
+
+            etag = newEtag;
+            if (reuse(index.find(url, newEtag, size))) return false;
+
+            if (range == null || size <= 0 || singleConnection) {
+                // 服务器不支持分段（或者分段下时文件总在变），这个响应本身就是整个文件
+                totalSize = size;
+                holding = false;
+                singleThreadDownload(first.body(), permits, size);
+                return false;
+            }
+
+            Files.createDirectories(target.getParent());
+            resumed = pending != null && canResume(size, newEtag, newLastModified);
+            synchronized (this) {
+                segments.clear();
+                workers.clear();
+            }
+            totalSize = size;
+            lastModified = newLastModified;
+            validatorChanged = false;
+            // 摘要的状态存不进日志，接着下的时候已经下好的部分会在前沿追上时从文件里读一遍
+            digest = new DownloadDigest();
+
+            if (resumed) {
+                restoreSegments(saved);
+                channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } else {
+                // 先删掉旧文件再建新的，不在别人可能还引用着的那份数据上原地截断
+                Files.deleteIfExists(target);
+                channel = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                // 小文件少开几段，大文件一开始最多 4 段，之后看吞吐量再加
+                int initial = (int) Math.max(1, Math.min(4, totalSize / (4 * MIN_SPLIT)));
+                long chunkSize = totalSize / initial;
+                synchronized (this) {
+                    for (int i = 0; i < initial; i++) {
+                        long start = i * chunkSize;
+                        long end = (i == initial - 1) ? totalSize - 1 : start + chunkSize - 1;
+                        segments.add(new Segment(start, end, start));
+                    }
+                }
+            }
+            saveJournal();
+            lastSampleAt = 0;
+            bytesPerSecond = 0;
+            runStartedAt = System.nanoTime();
+            runStartBytes = received.sum();
+            publishing = true;
+
+            synchronized (this) {
+                // 第一个响应正好从某个分段的断点开始，由第一个线程接着读
+                Segment head = claimAt(range[0]);
+                if (head != null) {
+                    InputStream body = first.body();
+                    workers.add(CompletableFuture.runAsync(() -> runWorker(head, body), scheduler.executor()));
+                    holding = false;
+                }
+                for (int i = workers.size(); i < 4; i++) {
+                    Segment seg = claim();
+                    if (seg == null) break;
+                    workers.add(CompletableFuture.runAsync(() -> runWorker(seg, null), scheduler.executor()));
+                }
+            }
+        } finally {
+            if (holding) {
+                first.body().close();
+                permits.release();
+            }
+        }
+
+        String hex = null;
+        try {
+            monitor();
+            CompletableFuture.allOf(workerSnapshot()).join();
+            channel.force(false);
+            if (!validatorChanged && downloaded() >= totalSize) {
+                digest.catchUp(channel, totalSize);
+                hex = digest.finish();
+            }
+        } finally {
+            publishing = false;
+            channel.close();
+        }
+
+        if (validatorChanged) {
+            // 服务器上的文件已经变了，之前下的部分作废，从头再来。从头下的也没对上，
+            // 说明文件在下载期间还在变，或者服务器每次给的校验信息不一样：再来就只用一个连接
+            Files.deleteIfExists(journal);
+            if (!resumed) singleConnection = true;
+            Platform.runLater(() -> status.set("文件有更新，重新下载..."));
+            return true;
+        }
+        if (downloaded() < totalSize) {
+            saveJournal();
+            long done = downloaded();
+            Platform.runLater(() -> status.set(paused
+                    ? String.format("已暂停 %.1f MB / %.1f MB", done / 1e6, totalSize / 1e6)
+                    : "失败了: 有分段没能下载完，可以稍后继续"));
+        } else {
+            Files.deleteIfExists(journal);
+            completed = true;
+            finishDigest(hex);
+        }
+        return false;
+    }
+
+    // 本地已经有同样内容的文件：复制过来，不再下载
+    private boolean reuse(DownloadIndex.Entry existing) {
+        if (existing == null) return false;
+        try {
+            DownloadIndex.materialize(existing, target);
+        } catch (IOException e) {
+            System.err.println("复用已下载的文件失败: " + e.getMessage());
+            return false;
+        }
+        try {
+            Files.deleteIfExists(journal);
+        } catch (IOException e) {
+            System.err.println("删除下载日志失败: " + e.getMessage());
+        }
+        totalSize = existing.size();
+        synchronized (this) {
+            segments.clear();
+            segments.add(new Segment(0, totalSize - 1, totalSize));
+        }
+        index.countHit(existing.size());
+        completed = true;
+        sha256 = existing.sha256();
+        index.record(url, etag, sha256, target);
+        Stats done = snapshot(System.nanoTime());
+        Platform.runLater(() -> {
+            stats.set(done);
+            status.set("本地已有相同的文件，直接用了那份（" + existing.path().getFileName() + "）  SHA-256 " + shortHex(sha256));
+        });
+        return true;
+    }
+
+    // 下完以后：和用户给的校验值比一下，对得上才登记进索引
+    private void finishDigest(String hex) {
+        sha256 = hex;
+        String expected = expectedSha256;
+        if (expected != null && !expected.equalsIgnoreCase(hex)) {
+            Platform.runLater(() -> status.set("校验失败！SHA-256 是 " + hex + "，和给定的值不一样，文件已保留"));
+            return;
+        }
+        index.record(url, etag, hex, target);
+        Platform.runLater(() -> status.set("搞定啦！SHA-256 " + shortHex(hex) + (expected != null ? "（已校验）" : "")));
+    }
+
+    // 给出校验值：已经下完的马上对一下，还在下的等下完再对
+    void expectSha256(String hex) {
+        String normalized = hex.trim().toLowerCase(Locale.ROOT);
+        if (!normalized.matches("[0-9a-f]{64}")) throw new IllegalArgumentException("SHA-256 应该是 64 位十六进制数");
+        expectedSha256 = normalized;
+        String actual = sha256;
+        if (!completed || actual == null) return;
+        status.set(normalized.equals(actual)
+                ? "搞定啦！SHA-256 " + shortHex(actual) + "（已校验）"
+                : "校验失败！SHA-256 是 " + actual + "，和给定的值不一样，文件已保留");
+    }
+
+    static String shortHex(String hex) {
+        return hex == null ? "--" : hex.substring(0, 16) + "…";
+    }
+
+    // 日志里的校验信息和服务器一致、目标文件也还在，才能接着下
+    private boolean canResume(long size, String newEtag, String newLastModified) {
+        if (!Files.exists(journal) || !Files.exists(target)) return false;
+        Properties p = readJournal();
+        if (p == null || Long.parseLong(p.getProperty("total", "0")) != size) return false;
+        String oldEtag = p.getProperty("etag", "");
+        String oldLastModified = p.getProperty("lastModified", "");
+        if (oldEtag.isEmpty() && oldLastModified.isEmpty()) return false;
+        return Objects.equals(oldEtag, Objects.toString(newEtag, ""))
+                && Objects.equals(oldLastModified, Objects.toString(newLastModified, ""));
+    }
+
+    // 每秒检查一次：新加的线程让总吞吐量涨了 10% 以上就继续加，否则说明带宽已经吃满
+    private void monitor() throws InterruptedException, IOException {
+        double lastRate = 0;
+        long lastBytes = received.sum();
+        long lastTime = System.nanoTime();
+        boolean growing = true;
+        while (!paused && !allDone()) {
+            Thread.sleep(1000);
+            long now = System.nanoTime();
+            long bytes = received.sum();
+            double rate = (bytes - lastBytes) / ((now - lastTime) / 1e9);
+            lastBytes = bytes;
+            lastTime = now;
+            channel.force(false);
+            saveJournal();
+
+            if (growing && lastRate > 0 && rate < lastRate * 1.1) growing = false;
+            if (growing && activeWorkers() < MAX_SEGMENTS && scheduler.hostPermits(url).availablePermits() > 0) {
+                synchronized (this) {
+                    Segment next = claim();
+                    if (next != null) workers.add(CompletableFuture.runAsync(() -> runWorker(next, null), scheduler.executor()));
+                }
+            }
+            lastRate = Math.max(lastRate, rate);
+        }
+    }
+
+    // prefetched 是已经发出去的第一个请求的响应体，调用方替它占着一个连接名额
+    private void runWorker(Segment first, InputStream prefetched) {
+        // 堆上的缓冲：响应体直接读进数组。不能套 Channels.newChannel，它读的时候持有锁，
+        // 虚拟线程等数据时会钉死在载体线程上，HttpClient 投递数据的任务就没有线程可用了
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        Semaphore permits = scheduler.hostPermits(url);
+        Segment seg = first;
+        InputStream body = prefetched;
+        // 连续失败、中间没有任何进展的次数；有进展就清零，长时间的下载不会因为偶尔断几次就失败
+        int attempts = 0;
+        try {
+            while (seg != null && !paused && !validatorChanged) {
+                if (body == null) permits.acquire();
+                long before = seg.position;
+                boolean failed = false;
+                try {
+                    downloadSegment(seg, buffer, body);
+                } catch (IOException ex) {
+                    // 连接断了就在同一个分段上从断点重试，超过次数才算失败
+                    if (seg.position > before) attempts = 0;
+                    if (++attempts > MAX_RETRIES) throw ex;
+                    seg.retries++;
+                    retries.incrementAndGet();
+                    failed = true;
+                } finally {
+                    body = null;
+                    permits.release();
+                }
+                if (failed) {
+                    Thread.sleep(backoffMillis(attempts));
+                    continue;
+                }
+                attempts = 0;
+                // 这一段下完了，后面的分段可能早就写好，让摘要的前沿跟上
+                if (seg.remaining() == 0) digest.catchUp(channel, contiguousWritten());
+                seg = claim();
+            }
+        } catch (Exception ex) {
+            System.err.println("下载分段失败: " + reason(ex));
+            Platform.runLater(() -> status.set("失败了: " + reason(ex)));
+        } finally {
+            // 还没开始读就暂停了
+            if (body != null) {
+                closeQuietly(body);
+                permits.release();
+            }
+        }
+    }
+
+    // 指数退避：0.5 秒、1 秒、2 秒……最多 15 秒，再随机打个五到十折，免得各分段同时重连
+    static long backoffMillis(int attempt) {
+        long base = Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(attempt - 1, 16));
+        return (long) (base * (0.5 + ThreadLocalRandom.current().nextDouble() * 0.5));
+    }
+
+    private void downloadSegment(Segment seg, ByteBuffer buffer, InputStream prefetched) throws IOException, InterruptedException {
+        InputStream body = prefetched;
+        if (seg.remaining() == 0) {
+            if (body != null) body.close();
+            return;
+        }
+        if (body == null) {
+            String validator = ifRangeValidator();
+            HttpResponse<InputStream> response = get(seg.position, seg.end, validator);
+            int code = response.statusCode();
+            if (code == 200 && validator != null) {
+                response.body().close();
+                validatorChanged = true;
+                return;
+            }
+            long[] range = code == 206 ? contentRange(header(response, "Content-Range")) : null;
+            if (range == null || range[0] != seg.position) {
+                response.body().close();
+                // 5xx、429 之类交给上面退避重试
+                throw new IOException(code == 206 ? "服务器返回的范围不对" : code == 200
+                        ? "服务器不支持断点续传" : "服务器返回 " + code);
+            }
+            body = response.body();
+        }
+        try (InputStream in = body) {
+            while (!paused) {
+                long pos = seg.position;
+                long end = seg.end;
+                if (pos > end) break;
+                int read = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), end - pos + 1));
+                if (read < 0) {
+                    throw new IOException("连接提前断开");
+                }
+                buffer.clear().limit(read);
+                int n = buffer.remaining();
+                long at = pos;
+                while (buffer.hasRemaining()) {
+                    pos += channel.write(buffer, pos);
+                }
+                // 先算摘要再推进 position，别的线程补摘要时不会读到这一块
+                buffer.rewind();
+                digest.update(channel, seg.start, at, buffer);
+                seg.position = pos;
+                received.add(n);
+                scheduler.throttle(this, n);
+            }
+        }
+    }
+
+    // Range: bytes=from-to（to 为 -1 时到文件末尾）。超时只管等响应头，读响应体不限时
+    private HttpResponse<InputStream> get(long from, long to, String ifRange) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(30))
+                .header("Range", "bytes=" + from + "-" + (to < 0 ? "" : String.valueOf(to)));
+        if (ifRange != null) request.header("If-Range", ifRange);
+        return scheduler.http().send(request.GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    private static String header(HttpResponse<?> response, String name) {
+        return response.headers().firstValue(name).orElse(null);
+    }
+
+    // "bytes 0-1023/4096" → {0, 4096}；总大小未知（*）时为 -1，格式不对返回 null
+    static long[] contentRange(String value) {
+        if (value == null || !value.startsWith("bytes ")) return null;
+        int dash = value.indexOf('-');
+        int slash = value.indexOf('/');
+        if (dash < 0 || slash < dash) return null;
+        try {
+            long start = Long.parseLong(value.substring(6, dash).trim());
+            String total = value.substring(slash + 1).trim();
+            return new long[]{start, total.equals("*") ? -1 : Long.parseLong(total)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // HttpClient 连不上时抛的异常没有消息，只能给个类名
+    static String reason(Exception ex) {
+        return ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // 反正不要了
+        }
+    }
+
+    private String ifRangeValidator() {
+        return validator(etag, lastModified);
+    }
+
+    // If-Range 只能用强 ETag，弱 ETag 时退回 Last-Modified；都没有返回 null
+    static String validator(String etag, String lastModified) {
+        if (etag != null && !etag.isEmpty() && !etag.startsWith("W/")) return etag;
+        return lastModified == null || lastModified.isEmpty() ? null : lastModified;
+    }
+
+    // 认领从 position 开始、还没人负责的分段
+    private synchronized Segment claimAt(long position) {
+        for (Segment s : segments) {
+            if (!s.owned && s.position == position && s.remaining() > 0) {
+                s.owned = true;
+                return s;
+            }
+        }
+        return null;
+    }
+
+    // 优先认领没人负责的分段；都有人在下了，就找出预计最晚完成的分段，把它剩下的后半截切出来
+    private synchronized Segment claim() {
+        for (Segment s : segments) {
+            if (!s.owned && s.remaining() > 0) {
+                s.owned = true;
+                return s;
+            }
+        }
+        Segment slowest = null;
+        double worstEta = 0;
+        for (Segment s : segments) {
+            long remaining = s.remaining();
+            if (remaining < 2 * MIN_SPLIT) continue;
+            double rate = s.bytesPerSecond();
+            double eta = rate <= 0 ? Double.MAX_VALUE : remaining / rate;
+            if (slowest == null || eta > worstEta) {
+                slowest = s;
+                worstEta = eta;
+            }
+        }
+        if (slowest == null) return null;
+        long oldEnd = slowest.end;
+        long split = slowest.position + slowest.remaining() / 2;
+        slowest.end = split - 1;
+        Segment tail = new Segment(split, oldEnd, split);
+        tail.owned = true;
+        segments.add(tail);
+        return tail;
+    }
+
+    // 从文件开头起连续写好的字节数
+    private synchronized long contiguousWritten() {
+        List<Segment> sorted = new ArrayList<>(segments);
+        sorted.sort((a, b) -> Long.compare(a.start, b.start));
+        long written = 0;
+        for (Segment s : sorted) {
+            if (s.start != written) break;
+            written = Math.min(s.position, s.end + 1);
+            if (written <= s.end) break;
+        }
+        return written;
+    }
+
+    private synchronized void restoreSegments(Properties p) {
+        segments.clear();
+        segments.addAll(parseSegments(p));
+    }
+
+    private static List<Segment> parseSegments(Properties p) {
+        List<Segment> list = new ArrayList<>();
+        for (String item : p.getProperty("segments", "").split(",")) {
+            String[] parts = item.split(":");
+            if (parts.length != 3) continue;
+            list.add(new Segment(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+        }
+        return list;
+    }
+
+    // 日志里第一个没下完的分段；日志坏了或者都下完了返回 null
+    private static Segment firstUnfinished(Properties p) {
+        try {
+            for (Segment s : parseSegments(p)) {
+                if (s.remaining() > 0) return s;
+            }
+        } catch (NumberFormatException e) {
+            // 当作没有日志
+        }
+        return null;
+    }
+
+    private Properties readJournal() {
+        Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            p.load(r);
+            return p;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // 先写临时文件再原子替换，断电时日志要么是旧的要么是新的；调用前数据已经 force 到磁盘
+    private void saveJournal() throws IOException {
+        Properties p = new Properties();
+        p.setProperty("url", url);
+        p.setProperty("target", target.toAbsolutePath().toString());
+        p.setProperty("total", String.valueOf(totalSize));
+        p.setProperty("etag", Objects.toString(etag, ""));
+        p.setProperty("lastModified", Objects.toString(lastModified, ""));
+        p.setProperty("sha256.expected", Objects.toString(expectedSha256, ""));
+        StringBuilder sb = new StringBuilder();
+        synchronized (this) {
+            for (Segment s : segments) {
+                if (sb.length() > 0) sb.append(',');
+                sb.append(s.start).append(':').append(s.end).append(':').append(Math.min(s.position, s.end + 1));
+            }
+        }
+        p.setProperty("segments", sb.toString());
+        Files.createDirectories(journal.getParent());
+        Path tmp = journal.resolveSibling(journal.getFileName() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            p.store(w, "Lantern download journal");
+        }
+        Files.move(tmp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized CompletableFuture<?>[] workerSnapshot() {
+        return workers.toArray(new CompletableFuture<?>[0]);
+    }
+
+    private synchronized int activeWorkers() {
+        return (int) workers.stream().filter(w -> !w.isDone()).count();
+    }
+
+    private synchronized boolean allDone() {
+        return workers.stream().allMatch(CompletableFuture::isDone);
+    }
+
+    long downloaded() {
+        long sum = 0;
+        for (Segment s : segments) sum += s.done();
+        return sum;
+    }
+
+    // 由调度器的采样线程调用，返回要在 FX 线程上执行的更新
+    Runnable sample(long now) {
+        if (!publishing) return null;
+        long bytes = received.sum();
+        if (lastSampleAt != 0) {
+            double instant = (bytes - lastSampleBytes) / ((now - lastSampleAt) / 1e9);
+            // 指数平滑，免得速度和剩余时间来回跳
+            bytesPerSecond = bytesPerSecond == 0 ? instant : bytesPerSecond * 0.8 + instant * 0.2;
+        }
+        lastSampleAt = now;
+        lastSampleBytes = bytes;
+
+        long total = totalSize;
+        // 服务器没给长度时没有分段，只能按收到的字节数算
+        long done = total > 0 ? downloaded() : bytes - runStartBytes;
+        double rate = bytesPerSecond;
+        etaSeconds = rate > 0 && total > 0 ? (long) ((total - done) / rate) : -1;
+        Stats snapshot = snapshot(now);
+        lastStats = snapshot;
+        String text = total > 0
+                ? String.format("已下载 %.1f MB / %.1f MB (%.1f%%)  %.1f MB/s  还要 %s",
+                        done / 1e6, total / 1e6, 100.0 * done / total, rate / 1e6, formatEta(etaSeconds))
+                : String.format("已下载 %.1f MB  %.1f MB/s（不知道总大小）", done / 1e6, rate / 1e6);
+        if (text.equals(lastPublished)) return null;
+        lastPublished = text;
+        // 任务结束后不再覆盖最终状态
+        return () -> {
+            if (publishing) {
+                status.set(text);
+                stats.set(snapshot);
+            }
+        };
+    }
+
+    // 最近一次采样的结果，给统计导出用；还没开始下载时为 null
+    Stats lastStats() {
+        return lastStats;
+    }
+
+    // 当前进度的快照，各分段的速度是各自从本次开始以来的平均值
+    Stats snapshot(long now) {
+        List<SegmentStats> segs = new ArrayList<>(segments.size());
+        for (Segment s : segments) {
+            segs.add(new SegmentStats(s.start, s.end, s.done(), (long) s.bytesPerSecond(), s.retries));
+        }
+        double seconds = (now - runStartedAt) / 1e9;
+        long average = runStartedAt == 0 || seconds <= 0 ? 0 : (long) ((received.sum() - runStartBytes) / seconds);
+        return new Stats(downloaded(), totalSize, publishing ? (long) bytesPerSecond : 0, average,
+                publishing ? etaSeconds : -1, retries.get(), running ? activeWorkers() : 0, segs);
+    }
+
+    static String formatEta(long seconds) {
+        if (seconds < 0) return "--";
+        if (seconds < 60) return seconds + " 秒";
+        if (seconds < 3600) return (seconds / 60) + " 分 " + (seconds % 60) + " 秒";
+        return (seconds / 3600) + " 小时 " + (seconds % 3600 / 60) + " 分";
+    }
+
+    // 服务器不支持分段：直接读第一个请求的响应体，读完把连接名额还回去。
+    // 进度照样由采样线程发布；暂停只能断开连接，继续时从头下
+    private void singleThreadDownload(InputStream body, Semaphore permits, long size) {
+        Segment whole = new Segment(0, size > 0 ? size - 1 : Long.MAX_VALUE - 1, 0);
+        synchronized (this) {
+            segments.clear();
+            workers.clear();
+            if (size > 0) segments.add(whole);
+        }
+        lastSampleAt = 0;
+        bytesPerSecond = 0;
+        runStartedAt = System.nanoTime();
+        runStartBytes = received.sum();
+        publishing = true;
+        try {
+            DownloadDigest sha = new DownloadDigest();
+            try (InputStream in = body) {
+                Files.createDirectories(target.getParent());
+                Files.deleteIfExists(target);
+                try (OutputStream out = Files.newOutputStream(target)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        if (paused) break;
+                        out.write(buffer, 0, n);
+                        sha.update(buffer, 0, n);
+                        whole.position += n;
+                        received.add(n);
+                        scheduler.throttle(this, n);
+                    }
+                }
+            } finally {
+                permits.release();
+                publishing = false;
+            }
+            if (paused) {
+                if (!cancelled) Platform.runLater(() -> status.set("已暂停（服务器不支持断点续传，继续时从头下载）"));
+                return;
+            }
+            completed = true;
+            finishDigest(sha.finish());
+        } catch (Exception ex) {
+            Platform.runLater(() -> status.set("失败了: " + reason(ex)));
+        }
+    }
+
+    void pause() {
+        synchronized (this) {
+            paused = true;
+            restartRequested = false;
+        }
+    }
+
+    void resume() {
+        synchronized (this) {
+            if (!paused || cancelled) return;
+            // 线程还在退出，等 afterRun 重新排队；这期间状态仍然是暂停
+            if (running) {
+                restartRequested = true;
+                return;
+            }
+            paused = false;
+        }
+        start();
+    }
+
+    // 取消：停下来，删掉日志和下了一半的文件。正在下载的话等线程退出时再删
+    void cancel() {
+        if (completed) return;
+        cancelled = true;
+        paused = true;
+        scheduler.remove(this);
+        if (!running) discard();
+    }
+
+    private void discard() {
+        try {
+            Files.deleteIfExists(journal);
+            Files.deleteIfExists(target);
+        } catch (IOException e) {
+            System.err.println("删除下载文件失败: " + e.getMessage());
+        }
+        Platform.runLater(() -> {
+            status.set("已取消");
+            stats.set(null);
+        });
+    }
+}
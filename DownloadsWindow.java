@@ -0,0 +1,173 @@
+import javafx.beans.value.ChangeListener;
+import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+
+import java.util.function.Consumer;
+
+// 下载中心：每一行绑在任务的 status 和 stats 上，采样线程每次推送新快照时只重画对应的那一行。
+// 分段条上每一格是一个分段，深色部分是已经下完的；鼠标停在条上能看到每个分段的速度和重试次数
+class DownloadsWindow {
+    private final ObservableList<DownloadTask> tasks;
+    private final DownloadIndex index;
+    private final ListView<DownloadTask> list = new ListView<>();
+
+    DownloadsWindow(ObservableList<DownloadTask> tasks, DownloadIndex index) {
+        this.tasks = tasks;
+        this.index = index;
+    }
+
+    void show() {
+        Stage s = new Stage();
+        s.setTitle("下载中心");
+        list.setCellFactory(lv -> new TaskCell());
+        list.setItems(tasks);
+
+        Button pause = new Button("⏸ 暂停");
+        pause.setOnAction(e -> withSelected(DownloadTask::pause));
+        Button resume = new Button("▶ 继续");
+        resume.setOnAction(e -> withSelected(DownloadTask::resume));
+        Button cancel = new Button("✖ 取消");
+        cancel.setOnAction(e -> withSelected(DownloadTask::cancel));
+        Spinner<Integer> limit = new Spinner<>(0, 1_000_000, 0, 100);
+        limit.setEditable(true);
+        limit.setPrefWidth(100);
+        Button applyLimit = new Button("限速 KB/s");
+        applyLimit.setOnAction(e -> withSelected(t -> t.bandwidth.setRate(limit.getValue() * 1024L)));
+        HBox actions = new HBox(5, pause, resume, cancel, limit, applyLimit);
+
+        // 给选中的任务一个 SHA-256 校验值，下完（或者已经下完）时对比
+        TextField checksum = new TextField();
+        checksum.setPromptText("SHA-256 校验值");
+        HBox.setHgrow(checksum, Priority.ALWAYS);
+        Label indexStats = new Label(index.statsText());
+        indexStats.setStyle("-fx-font-size: 11px; -fx-text-fill: gray;");
+        Button verify = new Button("校验");
+        verify.setOnAction(e -> withSelected(t -> {
+            try {
+                t.expectSha256(checksum.getText());
+                checksum.clear();
+            } catch (IllegalArgumentException ex) {
+                checksum.setPromptText(ex.getMessage());
+                checksum.clear();
+            }
+            indexStats.setText(index.statsText());
+        }));
+        HBox verifyRow = new HBox(5, checksum, verify);
+
+        VBox vbox = new VBox(8, actions, verifyRow, indexStats, list);
+        VBox.setVgrow(list, Priority.ALWAYS);
+        vbox.setPadding(new Insets(10));
+        s.setScene(new Scene(vbox, 640, 420));
+        // 关窗时解除各行和任务属性的绑定，任务不会一直拉着这个窗口
+        s.setOnHidden(e -> list.setItems(null));
+        s.show();
+    }
+
+    private void withSelected(Consumer<DownloadTask> action) {
+        DownloadTask task = list.getSelectionModel().getSelectedItem();
+        if (task != null) action.accept(task);
+    }
+
+    private static String rate(long bytesPerSecond) {
+        return String.format("%.1f MB/s", bytesPerSecond / 1e6);
+    }
+
+    private static final class TaskCell extends ListCell<DownloadTask> {
+        private final Label name = new Label();
+        private final Label status = new Label();
+        private final ProgressBar progress = new ProgressBar(0);
+        private final Canvas segmentBar = new Canvas(0, 8);
+        private final Label detail = new Label();
+        private final Tooltip segmentTip = new Tooltip();
+        private final VBox box = new VBox(3, name, status, progress, segmentBar, detail);
+        private final ChangeListener<DownloadTask.Stats> onStats = (obs, old, st) -> render(st);
+        private DownloadTask bound;
+
+        TaskCell() {
+            name.setStyle("-fx-font-weight: bold;");
+            detail.setStyle("-fx-font-size: 11px; -fx-text-fill: gray;");
+            progress.setMaxWidth(Double.MAX_VALUE);
+            Tooltip.install(segmentBar, segmentTip);
+            // 列表变宽变窄时分段条跟着重画
+            listViewProperty().addListener((obs, old, lv) -> {
+                if (lv != null) segmentBar.widthProperty().bind(lv.widthProperty().subtract(40));
+            });
+            segmentBar.widthProperty().addListener((obs, old, w) -> {
+                if (bound != null) render(bound.stats.get());
+            });
+        }
+
+        @Override
+        protected void updateItem(DownloadTask task, boolean empty) {
+            super.updateItem(task, empty);
+            if (bound != null) {
+                bound.stats.removeListener(onStats);
+                status.textProperty().unbind();
+                bound = null;
+            }
+            if (empty || task == null) {
+                setGraphic(null);
+                return;
+            }
+            bound = task;
+            name.setText(task.target.getFileName() + "  ·  " + DownloadScheduler.hostOf(task.url));
+            status.textProperty().bind(task.status);
+            task.stats.addListener(onStats);
+            render(task.stats.get());
+            setGraphic(box);
+        }
+
+        private void render(DownloadTask.Stats st) {
+            GraphicsContext g = segmentBar.getGraphicsContext2D();
+            double w = segmentBar.getWidth();
+            double h = segmentBar.getHeight();
+            g.clearRect(0, 0, w, h);
+            if (st == null || st.total() <= 0) {
+                progress.setProgress(bound != null && bound.completed ? 1 : 0);
+                detail.setText("");
+                segmentTip.setText("还没有分段信息");
+                return;
+            }
+            progress.setProgress((double) st.done() / st.total());
+            detail.setText(String.format("当前 %s · 平均 %s · 剩余 %s · 连接 %d · 分段 %d · 重试 %d",
+                    rate(st.bytesPerSecond()), rate(st.averageBytesPerSecond()),
+                    DownloadTask.formatEta(st.etaSeconds()), st.workers(), st.segments().size(), st.retries()));
+
+            StringBuilder tip = new StringBuilder();
+            double scale = w / st.total();
+            int i = 0;
+            for (DownloadTask.SegmentStats seg : st.segments()) {
+                double x = seg.start() * scale;
+                double width = (seg.end() - seg.start() + 1) * scale;
+                g.setFill(Color.LIGHTGRAY);
+                g.fillRect(x, 0, width, h);
+                g.setFill(seg.retries() > 0 ? Color.ORANGE : Color.STEELBLUE);
+                g.fillRect(x, 0, seg.done() * scale, h);
+                g.setFill(Color.WHITE);
+                g.fillRect(x, 0, 1, h);
+                long size = seg.end() - seg.start() + 1;
+                if (tip.length() > 0) tip.append('\n');
+                tip.append(String.format("#%d  %.1f–%.1f MB  %.0f%%  %s  重试 %d",
+                        ++i, seg.start() / 1e6, (seg.end() + 1) / 1e6,
+                        size <= 0 ? 100.0 : 100.0 * seg.done() / size, rate(seg.bytesPerSecond()), seg.retries()));
+            }
+            segmentTip.setText(tip.toString());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import javafx.application.Platform;
+import javafx.scene.web.WebEngine;
+import netscape.javascript.JSObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.function.Function;
+
+// 一个 WebEngine 对应一个桥对象，换页面时重复使用。页面只能拿到它的 post 方法：
+// 调用方在 FX 线程上，这里只把整批消息交给 lantern-ext 线程就返回。
+// JavaScript 那边对 Java 对象只是弱引用，所以标签页要自己一直拿着它
+public class ExtensionBridge {
+    private final ExtensionRuntime runtime;
+    private final WebEngine engine;
+    // 每注入一次加一；旧页面的回复不会送到新页面上
+    private volatile int generation;
+    private volatile boolean closed;
+
+    ExtensionBridge(ExtensionRuntime runtime, WebEngine engine) {
+        this.runtime = runtime;
+        this.engine = engine;
+    }
+
+    // 页面调用：batch 是 [{id, type, data}, ...] 的 JSON
+    public void post(String batch) {
+        if (closed || batch == null) return;
+        int gen = generation;
+        runtime.worker().execute(() -> process(batch, gen));
+    }
+
+    void inject() {
+        if (closed) return;
+        generation++;
+        try {
+            JSObject window = (JSObject) engine.executeScript("window");
+            window.setMember("__lanternBridge", this);
+            engine.executeScript(runtime.bundle());
+        } catch (RuntimeException e) {
+            System.err.println("注入扩展失败: " + e.getMessage());
+        }
+    }
+
+    void close() {
+        closed = true;
+        generation++;
+    }
+
+    private void process(String batch, int gen) {
+        StringWriter replies = new StringWriter();
+        try {
+            JsonReader r = new JsonReader(new StringReader(batch), Math.max(16, batch.length()));
+            JsonWriter w = new JsonWriter(replies);
+            w.beginArray();
+            r.beginArray();
+            while (r.hasNext()) {
+                long id = -1;
+                String type = null, data = null;
+                r.beginObject();
+                while (r.hasNext()) {
+                    String name = r.nextName();
+                    if (r.peek() == JsonReader.Token.NULL) {
+                        r.skipValue();
+                        continue;
+                    }
+                    switch (name) {
+                        case "id" -> id = r.nextLong();
+                        case "type" -> type = r.nextString();
+                        case "data" -> data = r.nextString();
+                        default -> r.skipValue();
+                    }
+                }
+                r.endObject();
+                w.beginObject().name("id").value(id);
+                Function<String, String> handler = type == null ? null : runtime.handler(type);
+                if (handler == null) {
+                    w.name("error").value("未知的消息类型: " + type);
+                } else {
+                    try {
+                        w.name("result").value(handler.apply(data));
+                    } catch (RuntimeException e) {
+                        w.name("error").value(String.valueOf(e.getMessage()));
+                    }
+                }
+                w.endObject();
+            }
+            r.endArray();
+            w.endArray().flush();
+        } catch (IOException e) {
+            System.err.println("扩展消息格式不对: " + e.getMessage());
+            return;
+        }
+        String json = replies.toString();
+        // 整批回复只回 FX 线程一次
+        Platform.runLater(() -> {
+            if (closed || gen != generation) return;
+            try {
+                engine.executeScript("window.__lanternDeliver && window.__lanternDeliver(" + JsonWriter.quote(json) + ")");
+            } catch (RuntimeException e) {
+                /* 页面已经换掉了 */
+            }
+        });
+    }
+}
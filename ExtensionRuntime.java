@@ -0,0 +1,143 @@
+import javafx.scene.web.WebEngine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// 扩展运行时：~/.lantern/extensions 下的 *.js 只读一次，和 window.lantern 的前置脚本拼成一段缓存起来，
+// 每个页面的文档一出现就整段注入。页面里的 lantern.send 先排队，同一轮事件循环里的调用合成一批，
+// 一次交给 ExtensionBridge；处理放在 lantern-ext 线程上，回复也攒成一批再送回页面
+class ExtensionRuntime {
+    static final String VERSION = "Lantern 1.0";
+
+    // 页面这边的 window.lantern：send 返回 Promise，log/alert 不等回复
+    private static final String PRELUDE = """
+            (() => {
+                if (window.lantern && window.lantern.__runtime) return;
+                const bridge = window.__lanternBridge;
+                const pending = new Map();
+                let nextId = 1, queue = [], scheduled = false;
+                const flush = () => {
+                    scheduled = false;
+                    const batch = queue;
+                    queue = [];
+                    bridge.post(JSON.stringify(batch));
+                };
+                const send = (type, data) => new Promise((resolve, reject) => {
+                    const id = nextId++;
+                    pending.set(id, {resolve, reject});
+                    queue.push({id, type: String(type),
+                                data: data === undefined || data === null ? null
+                                      : typeof data === 'string' ? data : JSON.stringify(data)});
+                    if (!scheduled) {
+                        scheduled = true;
+                        setTimeout(flush, 0);
+                    }
+                });
+                window.__lanternDeliver = replies => {
+                    for (const r of JSON.parse(replies)) {
+                        const p = pending.get(r.id);
+                        if (!p) continue;
+                        pending.delete(r.id);
+                        if (r.error != null) p.reject(new Error(r.error));
+                        else p.resolve(r.result);
+                    }
+                };
+                window.lantern = {
+                    __runtime: true,
+                    send,
+                    log: msg => { send('log', msg); },
+                    alert: msg => { send('alert', msg); },
+                    getBrowserVersion: () => %s
+                };
+            })();
+            """.formatted(JsonWriter.quote(VERSION));
+
+    private final Path dir;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "lantern-ext");
+        t.setDaemon(true);
+        return t;
+    });
+    // 消息类型 → 处理函数，在 lantern-ext 线程上调用；参数和返回值都是字符串（可以是 JSON）
+    private final Map<String, Function<String, String>> handlers = new ConcurrentHashMap<>();
+    private String bundle;
+
+    ExtensionRuntime(Path dir, Consumer<String> alert) {
+        this.dir = dir;
+        handle("log", msg -> {
+            System.out.println("[Lantern 扩展] " + msg);
+            return null;
+        });
+        handle("alert", msg -> {
+            alert.accept(msg);
+            return null;
+        });
+    }
+
+    void handle(String type, Function<String, String> handler) {
+        handlers.put(type, handler);
+    }
+
+    // 启动时在后台先把脚本读好，第一个页面就不用等
+    void preload() {
+        worker.execute(this::bundle);
+    }
+
+    ExtensionBridge attach(WebEngine engine) {
+        ExtensionBridge bridge = new ExtensionBridge(this, engine);
+        engine.documentProperty().addListener((obs, old, doc) -> {
+            if (doc != null) bridge.inject();
+        });
+        return bridge;
+    }
+
+    void shutdown() {
+        worker.shutdownNow();
+    }
+
+    ExecutorService worker() {
+        return worker;
+    }
+
+    Function<String, String> handler(String type) {
+        return handlers.get(type);
+    }
+
+    // 每个扩展包在自己的函数里，一个出错不影响别的
+    synchronized String bundle() {
+        if (bundle != null) return bundle;
+        StringBuilder sb = new StringBuilder(PRELUDE);
+        List<Path> scripts = new ArrayList<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.js")) {
+                for (Path p : files) scripts.add(p);
+            } catch (IOException e) {
+                System.err.println("读取扩展失败: " + e.getMessage());
+            }
+        }
+        scripts.sort(null);
+        for (Path p : scripts) {
+            try {
+                String source = Files.readString(p, StandardCharsets.UTF_8);
+                String name = JsonWriter.quote(p.getFileName().toString());
+                sb.append("\ntry {\n(function () {\n").append(source).append("\n})();\n} catch (e) {\n")
+                        .append("lantern.log('扩展 ' + ").append(name).append(" + ' 出错: ' + e);\n}\n");
+            } catch (IOException e) {
+                System.err.println("读取扩展 " + p.getFileName() + " 失败: " + e.getMessage());
+            }
+        }
+        bundle = sb.toString();
+        return bundle;
+    }
+}
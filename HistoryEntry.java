@@ -0,0 +1,3 @@
+// 一条浏览记录，time 是访问时刻的毫秒时间戳
+record HistoryEntry(String title, String url, long time) {
+}
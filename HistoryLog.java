@@ -0,0 +1,239 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// 只追加的浏览历史日志：每次访问往 history.log 末尾写一行 JSON，
+// 写盘和 fsync 都在 PersistenceService 的后台线程上批量做；日志里过期的记录太多时在后台压缩一次
+class HistoryLog {
+    private static final int SYNC_BATCH = 64;
+    private static final long SYNC_MILLIS = 1000;
+
+    private final Path logFile;
+    private final int maxEntries;
+    // 按时间从旧到新，只在 FX 线程上修改
+    private final List<HistoryEntry> entries = new ArrayList<>();
+    // 加进内存的记录总数；每条记录的序号从 0 递增，删掉最旧的记录后其余记录的序号不变
+    private long appended;
+    private final ScheduledExecutorService writer;
+    // 以下字段只在 writer 线程上访问
+    private FileChannel channel;
+    private BufferedWriter out;
+    private int unsynced;
+    private long linesInFile;
+
+    HistoryLog(Path logFile, int maxEntries, PersistenceService persistence) {
+        this.logFile = logFile;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.writer = persistence.executor();
+    }
+
+    // 启动时调用：在 writer 线程上逐行读日志，之后的追加写排在它后面，不会把刚写进去的行再读一遍。
+    // 坏掉的行（比如崩溃时写了一半）直接跳过；读出来的记录要在 FX 线程上交给 adopt
+    CompletableFuture<List<HistoryEntry>> load() {
+        return CompletableFuture.supplyAsync(() -> {
+            List<HistoryEntry> loaded = new ArrayList<>();
+            long lines = 0;
+            if (Files.exists(logFile)) {
+                try (BufferedReader r = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = r.readLine()) != null) {
+                        lines++;
+                        HistoryEntry e = decode(line);
+                        if (e != null) loaded.add(e);
+                    }
+                } catch (IOException e) {
+                    System.err.println("读取历史记录失败: " + e.getMessage());
+                }
+            }
+            linesInFile += lines;
+            writer.scheduleWithFixedDelay(this::sync, SYNC_MILLIS, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+            return loaded;
+        }, writer);
+    }
+
+    // 读完之前已经追加的记录排在读出来的记录后面
+    void adopt(List<HistoryEntry> loaded) {
+        entries.addAll(0, loaded);
+        appended += loaded.size();
+        trim();
+    }
+
+    // 读旧版的 history.json，按旧到新返回。旧文件一行一条、按新到旧排列，时间是 LocalDateTime 字符串
+    static List<HistoryEntry> readLegacy(Path legacyFile) throws IOException {
+        List<HistoryEntry> newestFirst = new ArrayList<>();
+        try (BufferedReader r = Files.newBufferedReader(legacyFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                line = line.trim();
+                if (line.endsWith(",")) line = line.substring(0, line.length() - 1);
+                HistoryEntry e = decode(line);
+                if (e != null) newestFirst.add(e);
+            }
+        }
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    private static long parseLegacyTime(String s) {
+        return LocalDateTime.parse(s).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    List<HistoryEntry> entries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    long lastSeq() {
+        return appended - 1;
+    }
+
+    // 按序号取记录，已经被删掉的返回 null
+    HistoryEntry at(long seq) {
+        long i = seq - (appended - entries.size());
+        return i < 0 || i >= entries.size() ? null : entries.get((int) i);
+    }
+
+    void append(HistoryEntry entry) {
+        entries.add(entry);
+        appended++;
+        trim();
+        String line = encode(entry);
+        writer.execute(() -> write(line));
+    }
+
+    // 内存里超出上限时成批删掉最旧的，避免每次都挪动整个数组
+    private void trim() {
+        if (entries.size() > maxEntries + maxEntries / 10) {
+            entries.subList(0, entries.size() - maxEntries).clear();
+        }
+    }
+
+    private void write(String line) {
+        try {
+            if (out == null) {
+                channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            }
+            out.write(line);
+            out.write('\n');
+            linesInFile++;
+            if (++unsynced >= SYNC_BATCH) sync();
+        } catch (IOException e) {
+            System.err.println("写入历史记录失败: " + e.getMessage());
+        }
+    }
+
+    private void sync() {
+        if (out == null || unsynced == 0) return;
+        try {
+            out.flush();
+            channel.force(false);
+            unsynced = 0;
+            if (linesInFile > maxEntries + maxEntries / 2) compact();
+        } catch (IOException e) {
+            System.err.println("写入历史记录失败: " + e.getMessage());
+        }
+    }
+
+    // 只保留最新的 maxEntries 行：写到临时文件，刷盘后原子替换
+    private void compact() throws IOException {
+        out.close();
+        out = null;
+        channel = null;
+        long skip = linesInFile - maxEntries;
+        Path tmp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        long kept = 0;
+        try (BufferedReader r = Files.newBufferedReader(logFile, StandardCharsets.UTF_8);
+             FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BufferedWriter w = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(tmpChannel), StandardCharsets.UTF_8));
+            String line;
+            long index = 0;
+            while ((line = r.readLine()) != null) {
+                if (index++ < skip) continue;
+                w.write(line);
+                w.write('\n');
+                kept++;
+            }
+            w.flush();
+            tmpChannel.force(false);
+        }
+        Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        linesInFile = kept;
+    }
+
+    // 退出时把还没写的记录写完并刷盘；线程本身由 PersistenceService 关闭
+    void close() {
+        try {
+            writer.submit(() -> {
+                sync();
+                try {
+                    if (out != null) out.close();
+                    out = null;
+                } catch (IOException e) {
+                    /* ignore */
+                }
+            }).get(3, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("写入历史记录失败: " + e.getMessage());
+        }
+    }
+
+    static String encode(HistoryEntry e) {
+        StringWriter sw = new StringWriter(e.title().length() + e.url().length() + 48);
+        try {
+            new JsonWriter(sw).beginObject()
+                    .name("title").value(e.title())
+                    .name("url").value(e.url())
+                    .name("time").value(e.time())
+                    .endObject();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return sw.toString();
+    }
+
+    // 解析一行 JSON 记录；写了一半或格式不对的行返回 null
+    static HistoryEntry decode(String line) {
+        String title = null, url = null;
+        long time = -1;
+        try {
+            JsonReader r = new JsonReader(new StringReader(line), line.length());
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "title" -> title = r.nextString();
+                    case "url" -> url = r.nextString();
+                    case "time" -> time = r.peek() == JsonReader.Token.STRING ? parseLegacyTime(r.nextString()) : r.nextLong();
+                    default -> r.skipValue();
+                }
+            }
+            r.endObject();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        if (title == null || url == null || time < 0) return null;
+        return new HistoryEntry(title, url, time);
+    }
+}
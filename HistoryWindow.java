@@ -0,0 +1,218 @@
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+// 浏览历史窗口：列表是按序号现取的视图，打开时不复制也不格式化任何记录，
+// ListView 只对看得见的几十行取数据、格式化时间；同一天的第一行上面带日期标题。
+// 输入关键字后在后台线程筛选，新关键字包含上一次的关键字时只在上次的结果里继续筛
+class HistoryWindow {
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm");
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyy-MM-dd EEEE", Locale.CHINA);
+    private static final int CHECK_EVERY = 4096;
+
+    private final HistoryLog historyLog;
+    private final Consumer<String> opener;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final Stage stage = new Stage();
+    private final ListView<HistoryEntry> list = new ListView<>();
+    private final Label status = new Label();
+    private final ExecutorService filterThread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "lantern-history-filter");
+        t.setDaemon(true);
+        return t;
+    });
+    // 第一次筛选时拍下的记录快照，之后的筛选结果都是它的下标
+    private HistoryEntry[] snapshot;
+    private String lastQuery;
+    private int[] lastMatches;
+    private volatile long generation;
+
+    HistoryWindow(HistoryLog historyLog, Consumer<String> opener) {
+        this.historyLog = historyLog;
+        this.opener = opener;
+    }
+
+    void show() {
+        stage.setTitle("你的浏览足迹");
+        TextField filter = new TextField();
+        filter.setPromptText("输入标题或网址筛选");
+        PauseTransition debounce = new PauseTransition(Duration.millis(150));
+        debounce.setOnFinished(e -> applyFilter(filter.getText()));
+        filter.textProperty().addListener((obs, old, text) -> debounce.playFromStart());
+
+        list.setCellFactory(lv -> new EntryCell());
+        list.setOnMouseClicked(e -> {
+            if (e.getClickCount() == 2) openSelected();
+        });
+        list.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ENTER) openSelected();
+        });
+        showAll();
+
+        VBox vbox = new VBox(6, new Label("双击任意记录即可返回"), filter, list, status);
+        VBox.setVgrow(list, Priority.ALWAYS);
+        vbox.setPadding(new Insets(10));
+        stage.setScene(new Scene(vbox, 500, 500));
+        stage.setOnHidden(e -> {
+            generation++;
+            filterThread.shutdownNow();
+        });
+        stage.show();
+    }
+
+    private void openSelected() {
+        HistoryEntry h = list.getSelectionModel().getSelectedItem();
+        if (h != null) {
+            opener.accept(h.url());
+            stage.close();
+        }
+    }
+
+    // 不筛选时直接按序号倒着读日志，最新的在最上面
+    private void showAll() {
+        long top = historyLog.lastSeq();
+        int size = historyLog.entries().size();
+        list.setItems(new Rows(size, i -> historyLog.at(top - i)));
+        status.setText(String.format("共 %,d 条", size));
+    }
+
+    private void applyFilter(String text) {
+        String query = text.trim().toLowerCase(Locale.ROOT);
+        long gen = ++generation;
+        if (query.isEmpty()) {
+            showAll();
+            return;
+        }
+        if (snapshot == null) snapshot = historyLog.entries().toArray(new HistoryEntry[0]);
+        HistoryEntry[] entries = snapshot;
+        int[] within = lastQuery != null && query.contains(lastQuery) ? lastMatches : null;
+        String[] terms = query.split("\\s+");
+        status.setText("正在查找...");
+        filterThread.execute(() -> {
+            int[] matches = within != null ? refine(entries, within, terms, gen) : scan(entries, terms, gen);
+            if (matches == null) return;
+            Platform.runLater(() -> {
+                if (gen != generation) return;
+                lastQuery = query;
+                lastMatches = matches;
+                list.setItems(new Rows(matches.length, i -> entries[matches[i]]));
+                status.setText(String.format("找到 %,d 条", matches.length));
+            });
+        });
+    }
+
+    // 从新到旧扫一遍快照；中途换了关键字就放弃，返回 null
+    private int[] scan(HistoryEntry[] entries, String[] terms, long gen) {
+        int[] out = new int[64];
+        int n = 0;
+        for (int i = entries.length - 1; i >= 0; i--) {
+            if (i % CHECK_EVERY == 0 && gen != generation) return null;
+            if (!matches(entries[i], terms)) continue;
+            if (n == out.length) out = Arrays.copyOf(out, n * 2);
+            out[n++] = i;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private int[] refine(HistoryEntry[] entries, int[] within, String[] terms, long gen) {
+        int[] out = new int[within.length];
+        int n = 0;
+        for (int k = 0; k < within.length; k++) {
+            if (k % CHECK_EVERY == 0 && gen != generation) return null;
+            if (matches(entries[within[k]], terms)) out[n++] = within[k];
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static boolean matches(HistoryEntry h, String[] terms) {
+        for (String t : terms) {
+            if (!containsIgnoreCase(h.title(), t) && !containsIgnoreCase(h.url(), t)) return false;
+        }
+        return true;
+    }
+
+    // 不为每条记录生成小写副本，直接逐位置比较
+    private static boolean containsIgnoreCase(String s, String lowerTerm) {
+        int last = s.length() - lowerTerm.length();
+        for (int i = 0; i <= last; i++) {
+            if (s.regionMatches(true, i, lowerTerm, 0, lowerTerm.length())) return true;
+        }
+        return false;
+    }
+
+    private LocalDate dayOf(long time) {
+        return Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+    }
+
+    // 只读的列表视图：大小固定，取第 i 行时才去找对应的记录
+    private static final class Rows extends ObservableListBase<HistoryEntry> {
+        private final int size;
+        private final IntFunction<HistoryEntry> row;
+
+        Rows(int size, IntFunction<HistoryEntry> row) {
+            this.size = size;
+            this.row = row;
+        }
+
+        @Override
+        public HistoryEntry get(int index) {
+            return row.apply(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private final class EntryCell extends ListCell<HistoryEntry> {
+        private final Label day = new Label();
+        private final Label line = new Label();
+        private final VBox box = new VBox(day, line);
+
+        EntryCell() {
+            day.setStyle("-fx-font-weight: bold; -fx-padding: 6 0 2 0;");
+            day.managedProperty().bind(day.visibleProperty());
+        }
+
+        @Override
+        protected void updateItem(HistoryEntry item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty || item == null) {
+                setGraphic(null);
+                return;
+            }
+            ZonedDateTime time = Instant.ofEpochMilli(item.time()).atZone(zone);
+            LocalDate date = time.toLocalDate();
+            // 和上一行不是同一天时显示日期标题
+            HistoryEntry previous = getIndex() > 0 ? getListView().getItems().get(getIndex() - 1) : null;
+            boolean header = previous == null || !dayOf(previous.time()).equals(date);
+            day.setVisible(header);
+            if (header) day.setText(DAY.format(date));
+            line.setText(TIME.format(time) + " | " + item.title());
+            setGraphic(box);
+        }
+    }
+}
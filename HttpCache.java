@@ -0,0 +1,759 @@
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.CacheRequest;
+import java.net.CacheResponse;
+import java.net.CookieHandler;
+import java.net.HttpURLConnection;
+import java.net.ResponseCache;
+import java.net.SecureCacheResponse;
+import java.net.URI;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+// 网页资源的磁盘缓存：装成 java.net.ResponseCache，WebView 通过 URLConnection 取的 GET 响应都会经过这里。
+// 每条缓存是 ~/.lantern/http-cache 下的 <key>.meta（响应头和过期时间）加 <key>.body；
+// 还新鲜的直接返回，过期但有 ETag/Last-Modified 的先发条件请求，304 就继续用，200 就直接用这个新响应。
+// 总大小超了按最近使用顺序删；私密标签页正在看的网站不读也不写
+class HttpCache extends ResponseCache {
+    // 没有 max-age/Expires 时按 Last-Modified 估的有效期不超过一天
+    private static final long MAX_HEURISTIC_MILLIS = 24 * 3_600_000L;
+    private static final Set<String> RESTRICTED = Set.of("connection", "content-length", "expect", "host", "upgrade");
+    // 条件请求拿到的新响应交给 WebView 时去掉的头：正文已经是解开分块的，Cookie 已经交给 CookieHandler
+    private static final Set<String> NOT_FORWARDED = Set.of("connection", "keep-alive", "transfer-encoding", "set-cookie");
+
+    private static final class Meta {
+        String url;
+        String status;
+        long size;
+        long stored;
+        long expires;
+        String etag;
+        String lastModified;
+        String cipher;
+        List<String> certs = new ArrayList<>();
+        // 不含 Set-Cookie；键按原样保存，查找时忽略大小写
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+    }
+
+    private final Path dir;
+    private final Executor io;
+    private volatile long maxBytes;
+    private volatile boolean ready;
+    private final HttpClient http = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    // 键是 URL 的 SHA-256，按访问顺序排列，最前面的最久没用；只在 synchronized (index) 里访问
+    private final LinkedHashMap<String, Meta> index = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+    // 私密标签页里打开着的页面的源（scheme://host:port）和个数。只记在进程里，发出去的请求上看不出来
+    private final Map<String, Integer> privateOrigins = new ConcurrentHashMap<>();
+    // get 和 put 在同一个加载线程上先后调用，get 决定这次请求的响应能不能写进缓存
+    private final ThreadLocal<Boolean> storable = ThreadLocal.withInitial(() -> false);
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong revalidated = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong bytesSaved = new AtomicLong();
+
+    HttpCache(Path dir, long maxBytes, Executor io) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.io = io;
+        io.execute(this::loadIndex);
+    }
+
+    void reconfigure(long maxBytes) {
+        this.maxBytes = maxBytes;
+        io.execute(this::evict);
+    }
+
+    // 私密标签页的地址变了：离开旧页面、进入新页面时各调一次。WebKit 先通知地址变化再发主文档的请求，
+    // 所以主文档也不会进缓存
+    void enterPrivate(String url) {
+        String origin = originOf(url);
+        if (origin != null) privateOrigins.merge(origin, 1, Integer::sum);
+    }
+
+    void leavePrivate(String url) {
+        String origin = originOf(url);
+        if (origin != null) privateOrigins.computeIfPresent(origin, (k, n) -> n > 1 ? n - 1 : null);
+    }
+
+    // 请求的网站或者发起请求的页面（Referer）正开在私密标签页里；普通标签页同时开着同一个网站时也宁可不缓存
+    private boolean isPrivate(URI uri, Map<String, List<String>> requestHeaders) {
+        if (privateOrigins.isEmpty()) return false;
+        String referer = originOf(first(requestHeaders, "Referer", null));
+        return privateOrigins.containsKey(originOf(uri.toString())) || (referer != null && privateOrigins.containsKey(referer));
+    }
+
+    String statsText() {
+        long served = hits.get() + revalidated.get();
+        long total = served + misses.get();
+        long used;
+        synchronized (index) {
+            used = totalBytes;
+        }
+        return String.format("命中 %d（其中重新验证 %d），未命中 %d，命中率 %.0f%%，省下 %.1f MB，占用 %.1f MB",
+                served, revalidated.get(), misses.get(), total == 0 ? 0.0 : 100.0 * served / total,
+                bytesSaved.get() / 1e6, used / 1e6);
+    }
+
+    @Override
+    public CacheResponse get(URI uri, String method, Map<String, List<String>> requestHeaders) {
+        storable.set(false);
+        if (!ready || maxBytes <= 0 || !"GET".equals(method) || !isHttp(uri)) return null;
+        if (isPrivate(uri, requestHeaders)) return null;
+        // 带凭据或者只要一部分内容的请求不缓存
+        if (first(requestHeaders, "Authorization", null) != null || first(requestHeaders, "Range", null) != null) return null;
+        storable.set(true);
+        // 强制刷新时不读缓存，但新的响应照样写进去
+        if (first(requestHeaders, "Cache-Control", "").contains("no-cache")
+                || first(requestHeaders, "Pragma", "").contains("no-cache")) {
+            misses.incrementAndGet();
+            return null;
+        }
+        String key = AiCache.key("GET", uri.toString());
+        Meta meta;
+        synchronized (index) {
+            meta = index.get(key);
+        }
+        if (meta == null || !Files.exists(body(key))) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (System.currentTimeMillis() >= meta.expires) return revalidate(uri, key, meta, requestHeaders);
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(meta.size);
+        return response(uri, new Entry(key, meta, null));
+    }
+
+    @Override
+    public CacheRequest put(URI uri, URLConnection conn) throws IOException {
+        boolean allowed = storable.get();
+        storable.remove();
+        if (!allowed || maxBytes <= 0 || !(conn instanceof HttpURLConnection hc)) return null;
+        if (!"GET".equals(hc.getRequestMethod()) || hc.getResponseCode() != 200) return null;
+
+        Meta meta = new Meta();
+        meta.url = uri.toString();
+        for (Map.Entry<String, List<String>> h : hc.getHeaderFields().entrySet()) {
+            if (h.getKey() == null) meta.status = h.getValue().isEmpty() ? null : h.getValue().get(0);
+            else if (!h.getKey().equalsIgnoreCase("Set-Cookie")) meta.headers.put(h.getKey(), List.copyOf(h.getValue()));
+        }
+        if (conn instanceof HttpsURLConnection https) {
+            try {
+                meta.cipher = https.getCipherSuite();
+                for (Certificate c : https.getServerCertificates()) {
+                    meta.certs.add(Base64.getEncoder().encodeToString(c.getEncoded()));
+                }
+            } catch (SSLPeerUnverifiedException | CertificateEncodingException | IllegalStateException e) {
+                return null;
+            }
+        }
+        return store(meta, hc.getContentLengthLong());
+    }
+
+    // 能缓存的 200 响应返回一个写缓存的 Store，不能缓存的返回 null
+    private Store store(Meta meta, long length) throws IOException {
+        String cacheControl = lower(header(meta, "Cache-Control"));
+        String vary = lower(header(meta, "Vary"));
+        if (cacheControl.contains("no-store") || (!vary.isEmpty() && !vary.equals("accept-encoding"))) return null;
+        // 单个响应最多占预算的八分之一
+        long limit = maxBytes / 8;
+        if (length > limit) return null;
+        meta.etag = header(meta, "ETag");
+        meta.lastModified = header(meta, "Last-Modified");
+        meta.stored = System.currentTimeMillis();
+        meta.expires = meta.stored + lifetime(meta, meta.stored);
+        if (meta.expires <= meta.stored && meta.etag == null && meta.lastModified == null) return null;
+        return new Store(AiCache.key("GET", meta.url), meta, length, limit);
+    }
+
+    // 带上 ETag/Last-Modified 发条件请求。304 时刷新过期时间，返回缓存的内容；资源变了（200）时把这个新响应
+    // 直接交给 WebView，边读边写进缓存，不让原来的连接再取一次。别的情况和请求失败返回 null，交给原来的连接去取
+    private CacheResponse revalidate(URI uri, String key, Meta meta, Map<String, List<String>> requestHeaders) {
+        if (meta.etag == null && meta.lastModified == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            HttpRequest.Builder b = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(15)).GET();
+            for (Map.Entry<String, List<String>> h : requestHeaders.entrySet()) {
+                String name = h.getKey();
+                if (name == null || RESTRICTED.contains(name.toLowerCase(Locale.ROOT))
+                        || name.toLowerCase(Locale.ROOT).startsWith("if-")) continue;
+                for (String v : h.getValue()) b.header(name, v);
+            }
+            CookieHandler cookies = CookieHandler.getDefault();
+            if (cookies != null) {
+                for (Map.Entry<String, List<String>> h : cookies.get(uri, requestHeaders).entrySet()) {
+                    for (String v : h.getValue()) b.header(h.getKey(), v);
+                }
+            }
+            if (meta.etag != null) b.header("If-None-Match", meta.etag);
+            if (meta.lastModified != null) b.header("If-Modified-Since", meta.lastModified);
+            HttpResponse<InputStream> response = http.send(b.build(), HttpResponse.BodyHandlers.ofInputStream());
+            // 这个响应不经过 URLConnection，Set-Cookie 要自己交给 CookieHandler
+            if (cookies != null) cookies.put(uri, response.headers().map());
+            if (response.statusCode() != 304) {
+                remove(key);
+                misses.incrementAndGet();
+                if (response.statusCode() == 200) return fetched(uri, response);
+                response.body().close();
+                return null;
+            }
+            response.body().close();
+            Meta fresh = copyOf(meta);
+            for (String name : List.of("Cache-Control", "Expires", "Date", "ETag", "Last-Modified")) {
+                List<String> values = response.headers().allValues(name);
+                if (values.isEmpty()) continue;
+                fresh.headers.keySet().removeIf(k -> k.equalsIgnoreCase(name));
+                fresh.headers.put(name, values);
+            }
+            fresh.etag = header(fresh, "ETag");
+            fresh.lastModified = header(fresh, "Last-Modified");
+            fresh.stored = System.currentTimeMillis();
+            fresh.expires = fresh.stored + lifetime(fresh, fresh.stored);
+            synchronized (index) {
+                if (index.get(key) == meta) index.put(key, fresh);
+            }
+            io.execute(() -> writeMeta(key, fresh));
+            revalidated.incrementAndGet();
+            bytesSaved.addAndGet(fresh.size);
+            return response(uri, new Entry(key, fresh, null));
+        } catch (IOException | IllegalArgumentException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    // 条件请求拿回来的 200：WebView 读正文的同时写进缓存，读完整了才算存好
+    private CacheResponse fetched(URI uri, HttpResponse<InputStream> response) throws IOException {
+        Meta meta = new Meta();
+        meta.url = uri.toString();
+        meta.status = "HTTP/1.1 200 OK";
+        response.headers().map().forEach((name, values) -> {
+            if (!name.startsWith(":") && !NOT_FORWARDED.contains(name.toLowerCase(Locale.ROOT))) meta.headers.put(name, values);
+        });
+        if ("https".equalsIgnoreCase(uri.getScheme())) {
+            SSLSession session = response.sslSession().orElse(null);
+            try {
+                if (session == null) throw new SSLPeerUnverifiedException("没有 TLS 会话");
+                meta.cipher = session.getCipherSuite();
+                for (Certificate c : session.getPeerCertificates()) {
+                    meta.certs.add(Base64.getEncoder().encodeToString(c.getEncoded()));
+                }
+            } catch (SSLPeerUnverifiedException | CertificateEncodingException e) {
+                // 交不出证书 HttpsURLConnection 不肯用，只能让原来的连接再取一次
+                response.body().close();
+                return null;
+            }
+        }
+        Store store = store(meta, response.headers().firstValueAsLong("Content-Length").orElse(-1));
+        InputStream body = store == null ? response.body() : new TeeInputStream(response.body(), store);
+        return response(uri, new Entry(null, meta, body));
+    }
+
+    private CacheResponse response(URI uri, Entry entry) {
+        return "https".equalsIgnoreCase(uri.getScheme()) ? new SecureEntry(entry) : entry;
+    }
+
+    // 按 RFC 9111 的顺序：no-cache → max-age → Expires - Date → Last-Modified 估算
+    private static long lifetime(Meta meta, long now) {
+        String cc = lower(header(meta, "Cache-Control"));
+        if (cc.contains("no-cache")) return 0;
+        for (String directive : cc.split(",")) {
+            directive = directive.trim();
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Math.max(0, Long.parseLong(directive.substring(8).replace("\"", "")) * 1000);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        long date = parseDate(header(meta, "Date"), now);
+        String expires = header(meta, "Expires");
+        if (expires != null) return Math.max(0, parseDate(expires, 0) - date);
+        long lastModified = parseDate(meta.lastModified, 0);
+        if (lastModified > 0 && lastModified < date) return Math.min(MAX_HEURISTIC_MILLIS, (date - lastModified) / 10);
+        return 0;
+    }
+
+    private static long parseDate(String value, long def) {
+        if (value == null) return def;
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            return def;
+        }
+    }
+
+    // 一边交给 WebView 一边写临时文件，完整收完才换成正式的缓存条目
+    private final class Store extends CacheRequest {
+        private final String key;
+        private final Meta meta;
+        private final long expected;
+        private final long limit;
+        private final Path tmp;
+        private final OutputStream out;
+        private long written;
+        private boolean failed;
+
+        Store(String key, Meta meta, long expected, long limit) throws IOException {
+            this.key = key;
+            this.meta = meta;
+            this.expected = expected;
+            this.limit = limit;
+            Files.createDirectories(dir);
+            this.tmp = Files.createTempFile(dir, key, ".tmp");
+            this.out = Files.newOutputStream(tmp);
+        }
+
+        @Override
+        public OutputStream getBody() {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (failed) return;
+                    written += len;
+                    if (written > limit) {
+                        abort();
+                        return;
+                    }
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (failed) return;
+                    out.close();
+                    // 连接中途断了也会走到这里，长度不对就不要
+                    if (expected >= 0 && written != expected) {
+                        abort();
+                        return;
+                    }
+                    meta.size = written;
+                    commit();
+                }
+            };
+        }
+
+        @Override
+        public void abort() {
+            if (failed) return;
+            failed = true;
+            try {
+                out.close();
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                /* ignore */
+            }
+        }
+
+        private void commit() {
+            try {
+                Files.move(tmp, body(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("写入网页缓存失败: " + e.getMessage());
+                abort();
+                return;
+            }
+            synchronized (index) {
+                Meta old = index.put(key, meta);
+                if (old != null) totalBytes -= old.size;
+                totalBytes += meta.size;
+            }
+            io.execute(() -> {
+                writeMeta(key, meta);
+                evict();
+            });
+        }
+    }
+
+    // 缓存里的条目；body 不为空时是刚取回来的新响应，正文从它读
+    private class Entry extends CacheResponse {
+        final String key;
+        final Meta meta;
+        final InputStream body;
+
+        Entry(String key, Meta meta, InputStream body) {
+            this.key = key;
+            this.meta = meta;
+            this.body = body;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            if (meta.status != null) headers.put(null, List.of(meta.status));
+            headers.putAll(meta.headers);
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return body != null ? body : Files.newInputStream(body(key));
+        }
+    }
+
+    // 读到哪写到哪；读到末尾时提交缓存，没读完就关掉的作废
+    private static final class TeeInputStream extends FilterInputStream {
+        private final Store store;
+        private final OutputStream copy;
+        private boolean done;
+
+        TeeInputStream(InputStream in, Store store) {
+            super(in);
+            this.store = store;
+            this.copy = store.getBody();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (done) return n;
+            try {
+                if (n < 0) {
+                    done = true;
+                    copy.close();
+                } else {
+                    copy.write(b, off, n);
+                }
+            } catch (IOException e) {
+                done = true;
+                store.abort();
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // 跳过的内容没写进缓存，这份就不完整了
+            if (!done) {
+                done = true;
+                store.abort();
+            }
+            return super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!done) {
+                done = true;
+                store.abort();
+            }
+            super.close();
+        }
+    }
+
+    // https 的响应必须带上当时的加密套件和服务器证书，HttpsURLConnection 才肯用
+    private final class SecureEntry extends SecureCacheResponse {
+        private final Entry entry;
+
+        SecureEntry(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return entry.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return entry.getBody();
+        }
+
+        @Override
+        public String getCipherSuite() {
+            return entry.meta.cipher;
+        }
+
+        @Override
+        public List<Certificate> getLocalCertificateChain() {
+            return null;
+        }
+
+        @Override
+        public List<Certificate> getServerCertificateChain() throws SSLPeerUnverifiedException {
+            if (entry.meta.certs.isEmpty()) throw new SSLPeerUnverifiedException("缓存里没有证书");
+            try {
+                CertificateFactory factory = CertificateFactory.getInstance("X.509");
+                List<Certificate> chain = new ArrayList<>();
+                for (String c : entry.meta.certs) {
+                    chain.add(factory.generateCertificate(new ByteArrayInputStream(Base64.getDecoder().decode(c))));
+                }
+                return chain;
+            } catch (CertificateException e) {
+                throw new SSLPeerUnverifiedException(e.getMessage());
+            }
+        }
+
+        @Override
+        public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+            return ((X509Certificate) getServerCertificateChain().get(0)).getSubjectX500Principal();
+        }
+
+        @Override
+        public Principal getLocalPrincipal() {
+            return null;
+        }
+    }
+
+    private Path body(String key) {
+        return dir.resolve(key + ".body");
+    }
+
+    private Path metaFile(String key) {
+        return dir.resolve(key + ".meta");
+    }
+
+    private void remove(String key) {
+        synchronized (index) {
+            Meta old = index.remove(key);
+            if (old != null) totalBytes -= old.size;
+        }
+        io.execute(() -> deleteFiles(key));
+    }
+
+    // 以下方法都在 io 线程上执行
+
+    private void evict() {
+        List<String> victims = new ArrayList<>();
+        synchronized (index) {
+            Iterator<Map.Entry<String, Meta>> it = index.entrySet().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Meta> eldest = it.next();
+                totalBytes -= eldest.getValue().size;
+                victims.add(eldest.getKey());
+                it.remove();
+            }
+        }
+        for (String key : victims) deleteFiles(key);
+    }
+
+    private void deleteFiles(String key) {
+        try {
+            Files.deleteIfExists(metaFile(key));
+            Files.deleteIfExists(body(key));
+        } catch (IOException e) {
+            System.err.println("清理网页缓存失败: " + e.getMessage());
+        }
+    }
+
+    // 启动时把所有 .meta 读进内存，按上次使用时间排好；没有正文的条目和没写完的临时文件删掉
+    private void loadIndex() {
+        record Loaded(String key, Meta meta, long lastUsed) {
+        }
+        List<Loaded> loaded = new ArrayList<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path p : files) {
+                    String name = p.getFileName().toString();
+                    if (name.endsWith(".tmp")) {
+                        Files.deleteIfExists(p);
+                        continue;
+                    }
+                    if (!name.endsWith(".meta")) continue;
+                    String key = name.substring(0, name.length() - 5);
+                    Meta meta = readMeta(p);
+                    if (meta == null || !Files.exists(body(key))) {
+                        deleteFiles(key);
+                        continue;
+                    }
+                    loaded.add(new Loaded(key, meta, Files.getLastModifiedTime(p).toMillis()));
+                }
+            } catch (IOException e) {
+                System.err.println("读取网页缓存失败: " + e.getMessage());
+            }
+        }
+        loaded.sort((a, b) -> Long.compare(a.lastUsed(), b.lastUsed()));
+        synchronized (index) {
+            for (Loaded l : loaded) {
+                index.putIfAbsent(l.key(), l.meta());
+                totalBytes += l.meta().size;
+            }
+        }
+        ready = true;
+        evict();
+    }
+
+    private void writeMeta(String key, Meta meta) {
+        Path file = metaFile(key);
+        Path tmp = dir.resolve(key + ".meta.tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            JsonWriter j = new JsonWriter(w);
+            j.beginObject()
+                    .name("url").value(meta.url)
+                    .name("status").value(meta.status)
+                    .name("size").value(meta.size)
+                    .name("stored").value(meta.stored)
+                    .name("expires").value(meta.expires)
+                    .name("cipher").value(meta.cipher);
+            j.name("certs").beginArray();
+            for (String c : meta.certs) j.value(c);
+            j.endArray();
+            j.name("headers").beginArray();
+            for (Map.Entry<String, List<String>> h : meta.headers.entrySet()) {
+                for (String v : h.getValue()) j.beginArray().value(h.getKey()).value(v).endArray();
+            }
+            j.endArray().endObject().flush();
+        } catch (IOException e) {
+            System.err.println("写入网页缓存失败: " + e.getMessage());
+            return;
+        }
+        try {
+            // 缓存丢了可以重新下载，不用刷盘
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("写入网页缓存失败: " + e.getMessage());
+        }
+    }
+
+    private static Meta readMeta(Path file) {
+        Meta meta = new Meta();
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonReader r = new JsonReader(in);
+            r.beginObject();
+            while (r.hasNext()) {
+                String name = r.nextName();
+                if (r.peek() == JsonReader.Token.NULL) {
+                    r.skipValue();
+                    continue;
+                }
+                switch (name) {
+                    case "url" -> meta.url = r.nextString();
+                    case "status" -> meta.status = r.nextString();
+                    case "size" -> meta.size = r.nextLong();
+                    case "stored" -> meta.stored = r.nextLong();
+                    case "expires" -> meta.expires = r.nextLong();
+                    case "cipher" -> meta.cipher = r.nextString();
+                    case "certs" -> {
+                        r.beginArray();
+                        while (r.hasNext()) meta.certs.add(r.nextString());
+                        r.endArray();
+                    }
+                    case "headers" -> {
+                        r.beginArray();
+                        while (r.hasNext()) {
+                            r.beginArray();
+                            String key = r.nextString();
+                            String value = r.nextString();
+                            r.endArray();
+                            meta.headers.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+                        }
+                        r.endArray();
+                    }
+                    default -> r.skipValue();
+                }
+            }
+            r.endObject();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        if (meta.url == null) return null;
+        meta.etag = header(meta, "ETag");
+        meta.lastModified = header(meta, "Last-Modified");
+        return meta;
+    }
+
+    private static Meta copyOf(Meta m) {
+        Meta c = new Meta();
+        c.url = m.url;
+        c.status = m.status;
+        c.size = m.size;
+        c.cipher = m.cipher;
+        c.certs = m.certs;
+        c.headers = new LinkedHashMap<>(m.headers);
+        return c;
+    }
+
+    private static String header(Meta meta, String name) {
+        for (Map.Entry<String, List<String>> h : meta.headers.entrySet()) {
+            if (name.equalsIgnoreCase(h.getKey()) && !h.getValue().isEmpty()) return h.getValue().get(0);
+        }
+        return null;
+    }
+
+    private static String first(Map<String, List<String>> headers, String name, String def) {
+        for (Map.Entry<String, List<String>> h : headers.entrySet()) {
+            if (name.equalsIgnoreCase(h.getKey()) && !h.getValue().isEmpty()) return h.getValue().get(0);
+        }
+        return def;
+    }
+
+    private static String lower(String s) {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT);
+    }
+
+    static String originOf(String url) {
+        if (url == null) return null;
+        try {
+            URI uri = URI.create(url);
+            String scheme = lower(uri.getScheme());
+            if (uri.getHost() == null) return null;
+            int port = uri.getPort() >= 0 ? uri.getPort() : scheme.equals("https") ? 443 : 80;
+            return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isHttp(URI uri) {
+        String scheme = uri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+}
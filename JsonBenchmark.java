@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// 对比旧的正则拆分 / String.format 写法和流式 JsonReader / JsonWriter 的读写耗时。
+// 用法：javac JsonBenchmark.java && java JsonBenchmark [条数]
+public class JsonBenchmark {
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        List<Map<String, String>> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // 每 10 条放一条带引号、逗号和换行的标题，旧实现会把它们弄丢或写坏
+            String title = i % 10 == 0 ? "第 " + i + " 页 \"引号\",\"逗号\"\n换行" : "第 " + i + " 页 - Lantern 示例";
+            entries.add(Map.of("title", title, "url", "https://example.com/articles/" + i + "?ref=bench"));
+        }
+        Path dir = Files.createTempDirectory("lantern-json-bench");
+        Path legacyFile = dir.resolve("legacy.json");
+        Path streamFile = dir.resolve("stream.json");
+
+        System.out.printf("%,d 条记录，每项取 %d 轮中最快的一次%n", count, ROUNDS);
+        report("保存（旧）", best(() -> legacySave(entries, legacyFile)));
+        report("保存（流式）", best(() -> streamSave(entries, streamFile)));
+        report("读取（旧）", best(() -> legacyLoad(legacyFile)));
+        report("读取（流式）", best(() -> streamLoad(streamFile)));
+        System.out.printf("读回条数：旧 %,d，流式 %,d（共 %,d）%n",
+                legacyLoad(legacyFile).size(), streamLoad(streamFile).size(), count);
+        System.out.println("流式读回内容一致：" + streamLoad(streamFile).equals(entries));
+    }
+
+    interface Body {
+        Object run() throws IOException;
+    }
+
+    private static long best(Body body) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            body.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void report(String label, long nanos) {
+        System.out.printf("%-10s %8.1f ms%n", label, nanos / 1e6);
+    }
+
+    // 以前 Lantern.saveBookmarks 的写法
+    private static Object legacySave(List<Map<String, String>> entries, Path file) throws IOException {
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < entries.size(); i++) {
+            Map<String, String> bm = entries.get(i);
+            sb.append(String.format("  {\"title\":\"%s\",\"url\":\"%s\"}%s\n",
+                    bm.get("title").replace("\\", "\\\\").replace("\"", "\\\""),
+                    bm.get("url").replace("\\", "\\\\").replace("\"", "\\\""),
+                    i == entries.size() - 1 ? "" : ","));
+        }
+        sb.append("]");
+        Files.writeString(file, sb.toString(), StandardCharsets.UTF_8);
+        return null;
+    }
+
+    // 以前 Lantern.loadBookmarks 的写法
+    private static List<Map<String, String>> legacyLoad(Path file) throws IOException {
+        List<Map<String, String>> out = new ArrayList<>();
+        String content = Files.readString(file, StandardCharsets.UTF_8);
+        String[] entries = content.replaceFirst("^\\[", "").replaceFirst("\\]$", "").split("\\},\\{");
+        for (String entry : entries) {
+            entry = entry.replace("{", "").replace("}", "");
+            String[] pairs = entry.split("\",\"");
+            String title = "", url = "";
+            for (String pair : pairs) {
+                String[] kv = pair.split("\":\"", 2);
+                if (kv.length == 2) {
+                    String key = kv[0].replace("\"", "");
+                    String value = kv[1].replace("\"", "");
+                    if ("title".equals(key)) title = value;
+                    else if ("url".equals(key)) url = value;
+                }
+            }
+            if (!title.isEmpty() && !url.isEmpty()) out.add(Map.of("title", title, "url", url));
+        }
+        return out;
+    }
+
+    private static Object streamSave(List<Map<String, String>> entries, Path file) throws IOException {
+        try (JsonWriter w = new JsonWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), true)) {
+            w.beginArray();
+            for (Map<String, String> bm : entries) {
+                w.beginObject().name("title").value(bm.get("title")).name("url").value(bm.get("url")).endObject();
+            }
+            w.endArray();
+        }
+        return null;
+    }
+
+    private static List<Map<String, String>> streamLoad(Path file) throws IOException {
+        List<Map<String, String>> out = new ArrayList<>();
+        try (JsonReader r = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            r.beginArray();
+            while (r.hasNext()) {
+                String title = "", url = "";
+                r.beginObject();
+                while (r.hasNext()) {
+                    switch (r.nextName()) {
+                        case "title" -> title = r.nextString();
+                        case "url" -> url = r.nextString();
+                        default -> r.skipValue();
+                    }
+                }
+                r.endObject();
+                out.add(Map.of("title", title, "url", url));
+            }
+            r.endArray();
+        }
+        return out;
+    }
+}
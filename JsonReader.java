@@ -0,0 +1,256 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+// 流式 JSON 读取：一次只往前读一个记号，底层只有一个固定大小的字符缓冲，不会把整个文件读成字符串
+class JsonReader implements Closeable {
+    enum Token { BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END }
+
+    private static final int IN_ARRAY = 1;
+    private static final int EXPECT_NAME = 2;
+    private static final int EXPECT_VALUE = 3;
+
+    private final Reader in;
+    private final char[] buf;
+    private int pos;
+    private int limit;
+    private int[] stack = new int[16];
+    private int depth;
+    private final StringBuilder sb = new StringBuilder();
+
+    JsonReader(Reader in) {
+        this(in, 65536);
+    }
+
+    JsonReader(Reader in, int bufferSize) {
+        this.in = in;
+        this.buf = new char[Math.max(16, bufferSize)];
+    }
+
+    Token peek() throws IOException {
+        int c = skipSeparators();
+        if (c == -1) return Token.END;
+        return switch (c) {
+            case '{' -> Token.BEGIN_OBJECT;
+            case '}' -> Token.END_OBJECT;
+            case '[' -> Token.BEGIN_ARRAY;
+            case ']' -> Token.END_ARRAY;
+            case '"' -> depth > 0 && stack[depth - 1] == EXPECT_NAME ? Token.NAME : Token.STRING;
+            case 't', 'f' -> Token.BOOLEAN;
+            case 'n' -> Token.NULL;
+            default -> {
+                if (c == '-' || (c >= '0' && c <= '9')) yield Token.NUMBER;
+                throw syntaxError("unexpected character '" + (char) c + "'");
+            }
+        };
+    }
+
+    boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_ARRAY && t != Token.END_OBJECT && t != Token.END;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        pos++;
+        push(IN_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        pos++;
+        depth--;
+        valueDone();
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        pos++;
+        push(EXPECT_NAME);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        pos++;
+        depth--;
+        valueDone();
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        String name = readString();
+        stack[depth - 1] = EXPECT_VALUE;
+        return name;
+    }
+
+    String nextString() throws IOException {
+        Token t = peek();
+        String s = switch (t) {
+            case STRING -> readString();
+            case NUMBER, BOOLEAN -> readLiteral();
+            default -> throw syntaxError("expected string but was " + t);
+        };
+        valueDone();
+        return s;
+    }
+
+    long nextLong() throws IOException {
+        Token t = peek();
+        String s = switch (t) {
+            case NUMBER -> readLiteral();
+            case STRING -> readString();
+            default -> throw syntaxError("expected number but was " + t);
+        };
+        valueDone();
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return (long) Double.parseDouble(s);
+        }
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        String s = readLiteral();
+        valueDone();
+        return Boolean.parseBoolean(s);
+    }
+
+    void nextNull() throws IOException {
+        expect(Token.NULL);
+        readLiteral();
+        valueDone();
+    }
+
+    // 跳过当前的值（包括整个嵌套的对象或数组）
+    void skipValue() throws IOException {
+        Token t = peek();
+        switch (t) {
+            case BEGIN_ARRAY -> {
+                beginArray();
+                while (hasNext()) skipValue();
+                endArray();
+            }
+            case BEGIN_OBJECT -> {
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+            }
+            case NAME -> {
+                nextName();
+                skipValue();
+            }
+            case STRING -> nextString();
+            case NUMBER, BOOLEAN, NULL -> {
+                readLiteral();
+                valueDone();
+            }
+            default -> throw syntaxError("nothing to skip at " + t);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token t = peek();
+        if (t != expected) throw syntaxError("expected " + expected + " but was " + t);
+    }
+
+    private void push(int state) {
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = state;
+    }
+
+    // 对象里读完一个值，下一个应该是名字
+    private void valueDone() {
+        if (depth > 0 && stack[depth - 1] == EXPECT_VALUE) stack[depth - 1] = EXPECT_NAME;
+    }
+
+    // 逗号和冒号只起分隔作用，结构由栈来判断
+    private int skipSeparators() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) return -1;
+            char c = buf[pos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ',' || c == ':' || c == '\uFEFF') {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) throw syntaxError("unexpected end of input");
+        return buf[pos++];
+    }
+
+    private String readString() throws IOException {
+        pos++; // 开头的引号
+        // 常见情况：整个字符串都在缓冲区里且没有转义，直接从缓冲区构造
+        int end = pos;
+        while (end < limit && buf[end] != '"' && buf[end] != '\\') end++;
+        if (end < limit && buf[end] == '"') {
+            String s = new String(buf, pos, end - pos);
+            pos = end + 1;
+            return s;
+        }
+        sb.setLength(0);
+        while (true) {
+            // 没有转义的一段直接整块拷贝
+            int start = pos;
+            while (pos < limit && buf[pos] != '"' && buf[pos] != '\\') pos++;
+            sb.append(buf, start, pos - start);
+            int c = read();
+            if (c == '"') return sb.toString();
+            if (c == '\\') {
+                int esc = read();
+                switch (esc) {
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) code = code * 16 + Character.digit(read(), 16);
+                        sb.append((char) code);
+                    }
+                    default -> sb.append((char) esc);
+                }
+            } else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    private String readLiteral() throws IOException {
+        sb.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) break;
+            char c = buf[pos];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\n' || c == '\r' || c == '\t') break;
+            sb.append(c);
+            pos++;
+        }
+        return sb.toString();
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("JSON 格式错误: " + message);
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+// 流式 JSON 写出：逗号由写出器自己管理，字符串按规范转义（包括换行和其他控制字符）。
+// pretty 为 true 时顶层数组每个元素单独一行，和以前的文件格式保持一致
+class JsonWriter implements Closeable, Flushable {
+    private final Writer out;
+    private final boolean pretty;
+    private boolean[] first = new boolean[16];
+    private boolean[] isArray = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    JsonWriter(Writer out) {
+        this(out, false);
+    }
+
+    JsonWriter(Writer out, boolean pretty) {
+        this.out = out;
+        this.pretty = pretty;
+    }
+
+    JsonWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        push(true);
+        return this;
+    }
+
+    JsonWriter endArray() throws IOException {
+        boolean empty = first[depth - 1];
+        depth--;
+        if (pretty && depth == 0 && !empty) out.write('\n');
+        out.write(']');
+        return this;
+    }
+
+    JsonWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        push(false);
+        return this;
+    }
+
+    JsonWriter endObject() throws IOException {
+        depth--;
+        out.write('}');
+        return this;
+    }
+
+    JsonWriter name(String name) throws IOException {
+        if (!first[depth - 1]) out.write(',');
+        first[depth - 1] = false;
+        string(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String value) throws IOException {
+        if (value == null) return nullValue();
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    JsonWriter nullValue() throws IOException {
+        beforeValue();
+        out.write("null");
+        return this;
+    }
+
+    // 转义单个字符串，结果也可以直接当 JavaScript 的字符串字面量用
+    static String quote(String s) {
+        StringWriter sw = new StringWriter(s.length() + 16);
+        try {
+            new JsonWriter(sw).value(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sw.toString();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void push(boolean array) {
+        if (depth == first.length) {
+            first = Arrays.copyOf(first, depth * 2);
+            isArray = Arrays.copyOf(isArray, depth * 2);
+        }
+        first[depth] = true;
+        isArray[depth] = array;
+        depth++;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth == 0) return;
+        if (!first[depth - 1]) out.write(',');
+        first[depth - 1] = false;
+        if (pretty && depth == 1 && isArray[0]) out.write("\n  ");
+    }
+
+    private void string(String s) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String replacement;
+            if (c == '"') replacement = "\\\"";
+            else if (c == '\\') replacement = "\\\\";
+            else if (c == '\n') replacement = "\\n";
+            else if (c == '\r') replacement = "\\r";
+            else if (c == '\t') replacement = "\\t";
+            else if (c < 0x20 || c == '\u2028' || c == '\u2029') replacement = String.format("\\u%04x", (int) c);
+            else continue;
+            // 不需要转义的一段整块写出
+            if (i > start) out.write(s, start, i - start);
+            out.write(replacement);
+            start = i + 1;
+        }
+        if (start < s.length()) out.write(s, start, s.length() - start);
+        out.write('"');
+    }
+}
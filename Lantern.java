@@ -1,23 +1,34 @@
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.application.Platform;
-import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
 import javafx.concurrent.Worker;
 import javafx.geometry.Insets;
 import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
+import javafx.geometry.Side;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.scene.effect.DropShadow;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.*;
+import javafx.scene.paint.Color;
+import javafx.scene.text.TextAlignment;
 import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebHistory;
 import javafx.scene.web.WebView;
 import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 import java.io.*;
-import java.net.HttpURLConnection;
+import java.net.ResponseCache;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -25,15 +36,18 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javafx.collections.FXCollections;
 
 public class Lantern extends Application {
+    private static final String QWEN_MODEL = "qwen-max";
     private static final String WELCOME_HTML = """
             <html><head><meta charset='UTF-8'></head><body style='margin:0;background:linear-gradient(135deg,#ff6b6b,#ff4d4d);color:white;font-family:sans-serif;display:flex;flex-direction:column;justify-content:center;align-items:center;height:100vh;text-align:center'>
             <div class='lantern' style='font-size:6em;margin-bottom:20px;animation:glow 2s infinite alternate'>🏮</div>
@@ -42,24 +56,106 @@ public class Lantern extends Application {
             <style>@keyframes glow{from{text-shadow:0 0 10px #fff,0 0 20px #ff9999}to{text-shadow:0 0 20px #fff,0 0 40px #ff4d4d}}</style>
             </body></html>
             """;
+    // 首页的 data URL 只编码一次
+    private static final String WELCOME_URL = "data:text/html;base64,"
+            + Base64.getEncoder().encodeToString(WELCOME_HTML.getBytes(StandardCharsets.UTF_8));
 
     private TabPane tabPane;
     private HBox bookmarkBar;
+    private BookmarkBar bookmarkLinks;
+    private Button themeBtn;
     private boolean isDarkMode = false;
     private Stage primaryStage;
-    private final List<Map<String, String>> historyList = new ArrayList<>();
-    private final List<Map<String, String>> bookmarks = new ArrayList<>();
-    private final List<DownloadTask> downloadTasks = new ArrayList<>();
+    private final PersistenceService persistence = new PersistenceService(300);
+    private HistoryLog historyLog;
+    private AiCache aiCache;
+    private HttpCache httpCache;
+    private ContentBlocker contentBlocker;
+    private ExtensionRuntime extensions;
+    private QwenClient qwen;
+    // 启动时先是空索引，后台建好后整个换掉
+    private SearchIndex searchIndex = new SearchIndex();
+    // 和索引一样，启动时先是空的，后台读完后整个换掉
+    private BookmarkStore bookmarks = new BookmarkStore();
+    private final ObservableList<DownloadTask> downloadTasks = FXCollections.observableArrayList();
+    private DownloadScheduler downloadScheduler;
+    private DownloadIndex downloadIndex;
+    private SnapshotStore snapshots;
+    // 书签、历史、下载记录都读完并放进界面后完成（在 FX 线程上）
+    private final CompletableFuture<Void> storesLoaded = new CompletableFuture<>();
+    private final List<BrowserTab> browserTabs = new ArrayList<>();
+    private final Properties settings = new Properties();
+    private Label tabStatsLabel;
+    // 后台标签页的加载排队，选中的标签页插队
+    private PageLoadScheduler<BrowserTab> pageLoads;
+    private Timeline hibernateTimer;
     private Path lastDownloadDir = Paths.get(System.getProperty("user.home"), "Downloads");
     private final Path dataDir = Paths.get(System.getProperty("user.home"), ".lantern");
     private final Path bookmarksFile = dataDir.resolve("bookmarks.json");
     private final Path historyFile = dataDir.resolve("history.json");
+    private final Path historyLogFile = dataDir.resolve("history.log");
+    private final Path settingsFile = dataDir.resolve("settings.properties");
+    private final Path downloadJournalDir = dataDir.resolve("downloads");
+    private final Path sessionFile = dataDir.resolve("session.json");
+    // 上次退出时开着的标签页；back 从旧到新，forward 从近到远
+    private record SavedTab(String url, String title, List<String> back, List<String> forward) {
+    }
+    private List<SavedTab> savedTabs = List.of();
+    private int savedSelected;
+    // 恢复会话时选中标签页不唤醒，最后只唤醒原来选中的那个
+    private boolean restoring;
 
     @Override
     public void init() throws Exception {
+        StartupTrace.mark("进入 init");
         Files.createDirectories(dataDir);
-        loadBookmarks();
-        loadHistory();
+        loadSettings();
+        // 会话文件很小，而且决定窗口里有哪些标签页，所以在窗口出来之前读
+        if (booleanSetting("session.restore", true)) loadSession();
+        historyLog = new HistoryLog(historyLogFile, intSetting("history.maxEntries", 200_000), persistence);
+        qwen = new QwenClient(settings.getProperty("ai.endpoint", QwenClient.DEFAULT_ENDPOINT), QWEN_MODEL);
+        aiCache = new AiCache(dataDir.resolve("ai-cache"), 64,
+                intSetting("ai.cacheMB", 20) * 1024L * 1024L,
+                intSetting("ai.cacheTtlHours", 24) * 3_600_000L,
+                persistence.executor());
+        // WebView 的请求都走 URLConnection，装上全局的 ResponseCache 就能接住静态资源
+        httpCache = new HttpCache(dataDir.resolve("http-cache"), intSetting("http.cacheMB", 200) * 1024L * 1024L,
+                persistence.executor());
+        // 拦截广告和跟踪器的规则在缓存前面先过一遍，规则文件等第一个请求来了才读
+        contentBlocker = new ContentBlocker(dataDir.resolve("filters"), httpCache, booleanSetting("blocker.enabled", true));
+        // 拦截时只知道 Referer，分不出是哪个标签页发的：按站点记，同一站点的标签页都算上。
+        // 站点比主机名宽，static.example.com 上的样式表引用的跟踪器也算到 example.com 的页面头上
+        contentBlocker.setListener((pageHost, url) -> Platform.runLater(() -> {
+            String site = ContentBlocker.siteOf(pageHost);
+            for (BrowserTab bt : browserTabs) {
+                if (site.equals(bt.pageSite)) bt.countBlocked(url);
+            }
+        }));
+        ResponseCache.setDefault(contentBlocker);
+        downloadScheduler = new DownloadScheduler(
+                intSetting("downloads.maxConcurrent", 3),
+                intSetting("downloads.maxPerHost", 6),
+                intSetting("downloads.maxKBps", 0) * 1024L,
+                booleanSetting("downloads.exportStats", true) ? dataDir.resolve("download-stats.jsonl") : null);
+        downloadIndex = new DownloadIndex(dataDir.resolve("download-index.json"));
+        // 离线快照用自己的网址协议交给 WebView，整个进程只能装一次
+        snapshots = new SnapshotStore(dataDir.resolve("snapshots"), intSetting("snapshots.maxMB", 200) * 1024L * 1024L, persistence);
+        URL.setURLStreamHandlerFactory(protocol -> SnapshotStore.SCHEME.equals(protocol) ? snapshots.handler() : null);
+        extensions = new ExtensionRuntime(dataDir.resolve("extensions"),
+                msg -> Platform.runLater(() -> showAlert("来自扩展的消息", msg)));
+        extensions.preload();
+        // 书签、历史和下载记录在后台读，窗口和书签栏先画出来，读完再填进去
+        loadStores();
+        StartupTrace.mark("init 完成");
+    }
+
+    @Override
+    public void stop() {
+        saveSession();
+        downloadScheduler.shutdown();
+        extensions.shutdown();
+        historyLog.close();
+        persistence.close();
     }
 
     @Override
@@ -69,12 +165,25 @@ public class Lantern extends Application {
         // 保持默认窗口装饰，尊重操作系统
 
         BorderPane root = new BorderPane();
+        tabStatsLabel = new Label();
         bookmarkBar = createBookmarkBar();
         root.setTop(bookmarkBar);
 
         tabPane = new TabPane();
         tabPane.setTabClosingPolicy(TabPane.TabClosingPolicy.ALL_TABS);
-        createNewTab("data:text/html;base64," + Base64.getEncoder().encodeToString(WELCOME_HTML.getBytes(StandardCharsets.UTF_8)), false);
+        pageLoads = new PageLoadScheduler<>(this::selectedBrowserTab, intSetting("tabs.maxBackgroundLoads", 2));
+        tabPane.getSelectionModel().selectedItemProperty().addListener((obs, old, tab) -> {
+            long now = System.currentTimeMillis();
+            pageLoads.selectionChanged();
+            if (old != null && old.getUserData() instanceof BrowserTab previous) previous.lastActive = now;
+            if (tab != null && tab.getUserData() instanceof BrowserTab current && !restoring) {
+                current.lastActive = now;
+                current.wake();
+            }
+            enforceTabBudget();
+            saveSession();
+        });
+        if (!restoreSession()) createNewTab(WELCOME_URL, false);
         root.setCenter(tabPane);
 
         // --- 智能设置初始窗口大小 ---
@@ -89,30 +198,39 @@ public class Lantern extends Application {
         stage.setScene(scene);
         stage.centerOnScreen(); // 居中显示
         stage.show();
+        StartupTrace.mark("窗口显示");
+        if (StartupTrace.ENABLED) {
+            Runnable firstPulse = new Runnable() {
+                @Override
+                public void run() {
+                    scene.removePostLayoutPulseListener(this);
+                    StartupTrace.mark("首次绘制");
+                }
+            };
+            scene.addPostLayoutPulseListener(firstPulse);
+        }
+
+        // --- 定期检查标签页预算，把闲置的标签页送去休眠 ---
+        hibernateTimer = new Timeline(new KeyFrame(Duration.seconds(30), e -> enforceTabBudget()));
+        hibernateTimer.setCycleCount(Timeline.INDEFINITE);
+        hibernateTimer.play();
 
         scene.addEventHandler(KeyEvent.KEY_PRESSED, e -> {
             if (e.isControlDown() && e.getCode() == KeyCode.F12) {
-                if (!tabPane.getTabs().isEmpty()) {
-                    WebView wv = (WebView) ((BorderPane) tabPane.getSelectionModel().getSelectedItem().getContent()).getCenter();
-                    wv.getEngine().executeScript("console.log('开发者工具已激活！')");
+                BrowserTab bt = selectedBrowserTab();
+                if (bt != null) {
+                    new PerformancePanel(bt.displayTitle(), bt::engine, bt.loadMetrics, () -> bt.blockedCount).show();
                 }
             }
         });
     }
 
+    // 书签栏只建一次：书签的增删由 BookmarkBar 自己按改动更新，换主题只改颜色
     private HBox createBookmarkBar() {
         HBox bar = new HBox(5);
         bar.setPadding(new Insets(3));
         bar.setAlignment(Pos.CENTER_LEFT);
 
-        updateBookmarkBar(bar);
-        return bar;
-    }
-
-    private void updateBookmarkBar(HBox bar) {
-        bar.getChildren().clear();
-        bar.setStyle(isDarkMode ? "-fx-background-color: #2d2d2d;" : "-fx-background-color: #ffebee;");
-
         Button newTabBtn = new Button("+");
         newTabBtn.setOnAction(e -> createNewTab("about:blank", false));
         Button incognitoBtn = new Button("🕵️ 私密");
@@ -120,25 +238,34 @@ public class Lantern extends Application {
         Button aiBtn = new Button("🤖 AI助手");
         aiBtn.setOnAction(e -> summarizeCurrentPage());
 
-        for (Map<String, String> bm : bookmarks) {
-            Hyperlink link = new Hyperlink(bm.get("title"));
-            link.setOnAction(e -> createNewTab(bm.get("url"), false));
-            bar.getChildren().add(link);
-        }
+        bookmarkLinks = new BookmarkBar(bookmarks, url -> createNewTab(url, false), url -> createNewTab(url, false, true));
+        HBox.setHgrow(bookmarkLinks, Priority.ALWAYS);
+        themeBtn = createThemeButton();
 
         // --- 不再创建任何自定义窗口控制按钮 ---
 
         bar.getChildren().addAll(
+                bookmarkLinks,
                 new Separator(Orientation.VERTICAL),
                 newTabBtn,
                 incognitoBtn,
                 aiBtn,
                 new Separator(Orientation.VERTICAL),
-                createThemeButton(),
+                themeBtn,
                 createHistoryButton(),
-                createDownloadsButton()
+                createDownloadsButton(),
+                createSnapshotsButton(),
+                createSettingsButton(),
+                tabStatsLabel
                 // 右侧不再有任何占位符或控制按钮
         );
+        applyBarTheme(bar);
+        return bar;
+    }
+
+    private void applyBarTheme(HBox bar) {
+        bar.setStyle(isDarkMode ? "-fx-background-color: #2d2d2d;" : "-fx-background-color: #ffebee;");
+        themeBtn.setText(isDarkMode ? "☀️ 日间" : "🌙 夜间");
     }
 
     private Button createThemeButton() {
@@ -159,47 +286,33 @@ public class Lantern extends Application {
         return btn;
     }
 
-    private void createNewTab(String url, boolean isIncognito) {
-        Tab tab = new Tab(isIncognito ? "🔒 私密窗口" : "新标签页");
-        BorderPane content = new BorderPane();
-        TextField urlField = new TextField(url);
-        urlField.setPrefWidth(600);
-        urlField.setOnAction(e -> {
-            String input = urlField.getText().trim();
-            if (input.startsWith("/ai ")) {
-                String prompt = input.substring(4);
-                callQwenAPI(prompt).thenAccept(result -> Platform.runLater(() -> {
-                    try {
-                        String html = "<html><head><meta charset='UTF-8'></head><body><h2>Lantern AI 回答</h2><pre>" + result + "</pre></body></html>";
-                        createNewTab("data:text/html," + URLEncoder.encode(html, StandardCharsets.UTF_8), false);
-                    } catch (Exception ex) {
-                        showAlert("哎呀，出错了", ex.getMessage());
-                    }
-                }));
-            } else {
-                loadUrl(input, content);
-            }
-        });
+    private Button createSnapshotsButton() {
+        Button btn = new Button("📦 快照");
+        btn.setOnAction(e -> new SnapshotsWindow(snapshots, url -> createNewTab(url, false)).show());
+        return btn;
+    }
 
-        HBox toolbar = new HBox(5);
-        toolbar.setAlignment(Pos.CENTER_LEFT);
-        toolbar.setPadding(new Insets(5));
-        toolbar.getChildren().addAll(
-                createNavButton("◀ 返回", () -> goBack(content)),
-                createNavButton("▶ 前进", () -> goForward(content)),
-                createNavButton("🔄 刷新", () -> reload(content)),
-                createNavButton("🏠 首页", () -> loadWelcome(content)),
-                new Label(" "),
-                urlField
-        );
+    private Button createSettingsButton() {
+        Button btn = new Button("⚙️ 设置");
+        btn.setOnAction(e -> showSettingsWindow());
+        return btn;
+    }
 
-        WebView webView = new WebView();
-        WebEngine engine = webView.getEngine();
-        if (!isIncognito) {
-            engine.setUserDataDirectory(dataDir.toFile());
-        }
+    private BrowserTab createNewTab(String url, boolean isIncognito) {
+        return createNewTab(url, isIncognito, false);
+    }
+
+    // 后台打开的标签页不选中，加载要排队
+    private BrowserTab createNewTab(String url, boolean isIncognito, boolean background) {
+        BrowserTab bt = new BrowserTab(isIncognito);
+        browserTabs.add(bt);
+        bt.urlField.setText(url);
+        // 先放进标签栏并选中，前台打开的页面不用排队
+        tabPane.getTabs().add(bt.tab);
+        if (!background) tabPane.getSelectionModel().select(bt.tab);
 
         if (url.endsWith(".pdf")) {
+            bt.url = url;
             Platform.runLater(() -> {
                 try {
                     java.awt.Desktop.getDesktop().browse(new URL(url).toURI());
@@ -208,102 +321,195 @@ public class Lantern extends Application {
                 }
             });
         } else {
-            engine.load(url);
+            bt.load(url);
         }
+        saveSession();
+        return bt;
+    }
 
-        // --- 消除 JSObject 警告 ---
-        engine.getLoadWorker().stateProperty().addListener((obs, old, state) -> {
-            if (state == Worker.State.SUCCEEDED) {
-                try {
-                    Object windowObj = engine.executeScript("window");
-                    if (windowObj instanceof netscape.javascript.JSObject win) {
-                        win.setMember("lantern", new LanternExtensionAPI() {
-                            public void log(String msg) {
-                                System.out.println("[Lantern 扩展] " + msg);
-                            }
-                            public void alert(String msg) {
-                                Platform.runLater(() -> showAlert("来自扩展的消息", msg));
-                            }
-                            public String getBrowserVersion() {
-                                return "Lantern 1.0";
-                            }
-                        });
+    // 每个标签页先只放一个占位，选中时才创建 WebView；一开始只有原来选中的那个会加载
+    private boolean restoreSession() {
+        if (savedTabs.isEmpty()) return false;
+        restoring = true;
+        try {
+            for (SavedTab saved : savedTabs) {
+                BrowserTab bt = new BrowserTab(false);
+                browserTabs.add(bt);
+                bt.restore(saved);
+                tabPane.getTabs().add(bt.tab);
+            }
+            tabPane.getSelectionModel().select(Math.min(savedSelected, tabPane.getTabs().size() - 1));
+        } finally {
+            restoring = false;
+        }
+        BrowserTab selected = selectedBrowserTab();
+        if (selected != null) selected.wake();
+        updateTabStats();
+        return true;
+    }
+
+    private void loadSession() {
+        if (!Files.exists(sessionFile)) return;
+        List<SavedTab> tabs = new ArrayList<>();
+        int selected = 0;
+        try (JsonReader r = new JsonReader(Files.newBufferedReader(sessionFile, StandardCharsets.UTF_8))) {
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "selected" -> selected = (int) r.nextLong();
+                    case "tabs" -> {
+                        r.beginArray();
+                        while (r.hasNext()) tabs.add(readSavedTab(r));
+                        r.endArray();
                     }
-                } catch (Exception ex) {
-                    /* ignore */
+                    default -> r.skipValue();
                 }
             }
-        });
+            r.endObject();
+        } catch (Exception e) {
+            System.err.println("读取会话失败: " + e.getMessage());
+            return;
+        }
+        savedTabs = tabs;
+        savedSelected = Math.max(0, selected);
+    }
+
+    private static SavedTab readSavedTab(JsonReader r) throws IOException {
+        String url = null, title = null;
+        List<String> back = new ArrayList<>(), forward = new ArrayList<>();
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (r.peek() == JsonReader.Token.NULL) {
+                r.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "url" -> url = r.nextString();
+                case "title" -> title = r.nextString();
+                case "back", "forward" -> {
+                    List<String> list = name.equals("back") ? back : forward;
+                    r.beginArray();
+                    while (r.hasNext()) list.add(r.nextString());
+                    r.endArray();
+                }
+                default -> r.skipValue();
+            }
+        }
+        r.endObject();
+        return new SavedTab(url, title, back, forward);
+    }
 
-        engine.getLoadWorker().workDoneProperty().addListener((obs, old, progress) -> {
-            if (progress.intValue() == 100) {
-                String title = (String) engine.executeScript("document.title");
-                tab.setText((isIncognito ? "🔒 " : "") + (title.length() > 30 ? title.substring(0, 30) + "..." : title));
-                if (!isIncognito) addToHistory(title, engine.getLocation());
-                urlField.setText(engine.getLocation());
+    // 开关标签页、切换标签页、每次页面加载完都会调用；在 FX 线程上拍快照，合并后在后台写盘。私密标签页不保存
+    private void saveSession() {
+        if (tabPane == null || restoring || !booleanSetting("session.restore", true)) return;
+        List<SavedTab> tabs = new ArrayList<>();
+        int selected = 0;
+        BrowserTab current = selectedBrowserTab();
+        for (Tab tab : tabPane.getTabs()) {
+            BrowserTab bt = (BrowserTab) tab.getUserData();
+            if (bt.incognito) continue;
+            if (bt == current) selected = tabs.size();
+            tabs.add(bt.saved());
+        }
+        int selectedIndex = selected;
+        persistence.save(sessionFile, out -> {
+            JsonWriter w = new JsonWriter(out, true);
+            w.beginObject().name("selected").value(selectedIndex).name("tabs").beginArray();
+            for (SavedTab t : tabs) {
+                w.beginObject().name("url").value(t.url()).name("title").value(t.title());
+                w.name("back").beginArray();
+                for (String u : t.back()) w.value(u);
+                w.endArray().name("forward").beginArray();
+                for (String u : t.forward()) w.value(u);
+                w.endArray().endObject();
             }
+            w.endArray().endObject();
+            w.flush();
         });
+    }
 
-        content.setTop(toolbar);
-        content.setCenter(webView);
-        tab.setContent(content);
-        tabPane.getTabs().add(tab);
-        tabPane.getSelectionModel().select(tab);
+    private BrowserTab selectedBrowserTab() {
+        Tab tab = tabPane.getSelectionModel().getSelectedItem();
+        return tab == null ? null : (BrowserTab) tab.getUserData();
     }
 
     private void summarizeCurrentPage() {
-        if (tabPane.getTabs().isEmpty()) return;
-        BorderPane bp = (BorderPane) ((Tab)tabPane.getSelectionModel().getSelectedItem()).getContent();
-        WebView wv = (WebView) bp.getCenter();
-        String text = (String) wv.getEngine().executeScript("""
-            (() => {
-                let bodyText = document.body.innerText || '';
-                return bodyText.substring(0, 3000).replace(/\\n+/g, '\\n');
-            })()
-            """);
+        BrowserTab bt = selectedBrowserTab();
+        if (bt == null) return;
+        Object extracted = bt.engine().executeScript(PageSummarizer.EXTRACT_SCRIPT);
+        String text = extracted instanceof String str ? str : "";
         if (text.trim().isEmpty()) {
             showAlert("AI 摘要", "这个页面好像没什么内容可以总结呢！");
             return;
         }
-        String prompt = "你是一个专业的内容摘要助手。请用中文为以下网页内容生成一段简洁的摘要（100字以内）：\n\n" + text;
-        Alert loadingAlert = new Alert(Alert.AlertType.INFORMATION);
-        loadingAlert.setTitle("Lantern AI");
-        loadingAlert.setHeaderText("正在思考...");
-        loadingAlert.setContentText("让我看看...（大约需要 5-10 秒）");
-        loadingAlert.show();
-
-        callQwenAPI(prompt).thenAccept(result -> Platform.runLater(() -> {
-            loadingAlert.close();
-            Alert resultAlert = new Alert(Alert.AlertType.INFORMATION);
-            resultAlert.setTitle("Lantern AI 摘要");
-            resultAlert.setHeaderText("这是我的理解：");
-            resultAlert.setContentText(result);
-            resultAlert.getDialogPane().setMinHeight(200);
-            resultAlert.showAndWait();
-        }));
+        Alert dialog = new Alert(Alert.AlertType.INFORMATION);
+        dialog.setTitle("Lantern AI 摘要");
+        dialog.setHeaderText("正在思考...");
+        TextArea area = new TextArea("让我看看...");
+        area.setEditable(false);
+        area.setWrapText(true);
+        area.setPrefRowCount(8);
+        dialog.getDialogPane().setContent(area);
+        dialog.getDialogPane().setMinHeight(200);
+        boolean[] first = {true};
+        PageSummarizer summarizer = new PageSummarizer(this::askQwen,
+                intSetting("ai.chunkTokens", 6000), intSetting("ai.maxParallel", 8));
+        // 长页面先分段提取要点，再汇总；汇总的文字一边生成一边显示
+        CompletableFuture<String> request = summarizer.summarize(text,
+                (done, total) -> Platform.runLater(() -> {
+                    if (first[0]) dialog.setHeaderText(done < total
+                            ? String.format("正在分段阅读... %d / %d", done, total)
+                            : "读完了，正在汇总...");
+                }),
+                delta -> {
+                    if (first[0]) {
+                        first[0] = false;
+                        dialog.setHeaderText("这是我的理解：");
+                        area.clear();
+                    }
+                    area.appendText(delta);
+                });
+        request.handle((result, ex) -> {
+            String shown = ex == null ? result : userMessage(ex);
+            Platform.runLater(() -> {
+                if (request.isCancelled()) return;
+                dialog.setHeaderText("这是我的理解：");
+                area.setText(shown);
+            });
+            return null;
+        });
+        // 没等回答完就关掉对话框时断开所有请求
+        dialog.setOnHidden(e -> summarizer.cancel());
+        dialog.show();
     }
 
-    private void loadUrl(String input, BorderPane parent) {
+    private void loadUrl(String input, BrowserTab bt) {
         String url = input.trim();
-        if (!url.startsWith("http") && !url.startsWith("file:")) url = "https://" + url;
-        WebView wv = (WebView) parent.getCenter();
-        wv.getEngine().load(url);
-    }
-
-    private void goBack(BorderPane parent) {
-        ((WebView)parent.getCenter()).getEngine().getHistory().go(-1);
-    }
-
-    private void goForward(BorderPane parent) {
-        ((WebView)parent.getCenter()).getEngine().getHistory().go(1);
+        if (!url.startsWith("http") && !url.startsWith("file:") && !SnapshotStore.isSnapshot(url)) url = "https://" + url;
+        bt.load(url);
     }
 
-    private void reload(BorderPane parent) {
-        ((WebView)parent.getCenter()).getEngine().reload();
+    private void loadWelcome(BrowserTab bt) {
+        bt.load(WELCOME_URL);
     }
 
-    private void loadWelcome(BorderPane parent) {
-        ((WebView)parent.getCenter()).getEngine().load("data:text/html;base64," + Base64.getEncoder().encodeToString(WELCOME_HTML.getBytes(StandardCharsets.UTF_8)));
+    // 和 WELCOME_HTML 长得一样的普通控件，还没有网页引擎的标签页用它当首页
+    private Node welcomeView() {
+        Label lantern = new Label("🏮");
+        lantern.setStyle("-fx-font-size: 72px;");
+        lantern.setEffect(new DropShadow(20, Color.WHITE));
+        Label heading = new Label("欢迎使用 Lantern 浏览器！");
+        heading.setStyle("-fx-font-size: 32px; -fx-font-weight: bold; -fx-text-fill: white;");
+        Label intro = new Label("你好呀！我是你的新伙伴 Lantern，一个轻巧又贴心的浏览器。希望我能帮你探索更广阔的世界，享受每一次点击的乐趣！");
+        intro.setWrapText(true);
+        intro.setMaxWidth(600);
+        intro.setTextAlignment(TextAlignment.CENTER);
+        intro.setStyle("-fx-font-size: 15px; -fx-text-fill: white; -fx-line-spacing: 6px;");
+        VBox box = new VBox(20, lantern, heading, intro);
+        box.setAlignment(Pos.CENTER);
+        box.setStyle("-fx-background-color: linear-gradient(to bottom right, #ff6b6b, #ff4d4d);");
+        return box;
     }
 
     private Button createNavButton(String text, Runnable action) {
@@ -313,33 +519,132 @@ public class Lantern extends Application {
     }
 
     private void addToHistory(String title, String url) {
-        historyList.add(0, Map.of("title", title, "url", url, "time", LocalDateTime.now().toString()));
-        if (historyList.size() > 100) historyList.remove(historyList.size() - 1);
-        saveHistory();
+        long now = System.currentTimeMillis();
+        historyLog.append(new HistoryEntry(title, url, now));
+        searchIndex.addVisit(title, url, now);
     }
 
-    private void showHistoryWindow() {
-        Stage s = new Stage();
-        s.setTitle("你的浏览足迹");
-        ListView<String> list = new ListView<>();
-        list.setItems(FXCollections.observableArrayList(
-                historyList.stream()
-                        .map(h -> LocalDateTime.parse(h.get("time")).format(DateTimeFormatter.ofPattern("MM-dd HH:mm")) + " | " + h.get("title"))
-                        .collect(Collectors.toList())
-        ));
-        list.setOnMouseClicked(e -> {
-            if (e.getClickCount() == 2) {
-                int i = list.getSelectionModel().getSelectedIndex();
-                if (i >= 0) {
-                    createNewTab(historyList.get(i).get("url"), false);
-                    s.close();
+    private record LoadedStores(List<HistoryEntry> history, List<HistoryEntry> legacy,
+                                BookmarkStore bookmarks, List<DownloadTask> downloads, SearchIndex index) {
+    }
+
+    // 读文件和建索引都在后台，FX 线程上只把结果换进去
+    private void loadStores() {
+        Executor startup = r -> Thread.ofVirtual().name("lantern-startup").start(r);
+        CompletableFuture<List<HistoryEntry>> history = historyLog.load();
+        CompletableFuture<List<HistoryEntry>> legacy = CompletableFuture.supplyAsync(this::readLegacyHistory, startup);
+        CompletableFuture<BookmarkStore> marks = CompletableFuture.supplyAsync(this::loadBookmarks, startup);
+        CompletableFuture<List<DownloadTask>> downloads = CompletableFuture.supplyAsync(
+                () -> DownloadTask.loadJournals(downloadJournalDir, downloadScheduler, downloadIndex), startup);
+        CompletableFuture.allOf(history, legacy, marks, downloads)
+                .thenApplyAsync(v -> {
+                    SearchIndex index = new SearchIndex();
+                    for (HistoryEntry h : history.join()) index.addVisit(h.title(), h.url(), h.time());
+                    for (HistoryEntry h : legacy.join()) index.addVisit(h.title(), h.url(), h.time());
+                    marks.join().forEachBookmark(index::addBookmark);
+                    return new LoadedStores(history.join(), legacy.join(), marks.join(), downloads.join(), index);
+                }, startup)
+                .whenComplete((loaded, ex) -> Platform.runLater(() -> {
+                    if (ex != null) System.err.println("读取数据失败: " + ex.getMessage());
+                    else publishStores(loaded);
+                    storesLoaded.complete(null);
+                    StartupTrace.mark("存储加载完成");
+                }));
+    }
+
+    private void publishStores(LoadedStores loaded) {
+        // 读完之前已经访问过的页面也要进新索引
+        List<HistoryEntry> early = List.copyOf(historyLog.entries());
+        historyLog.adopt(loaded.history());
+        for (HistoryEntry h : early) loaded.index().addVisit(h.title(), h.url(), h.time());
+        if (!loaded.legacy().isEmpty()) {
+            // 旧版整份重写的 history.json 导入一次后改名留底；改名排在导入的记录写完之后
+            for (HistoryEntry h : loaded.legacy()) historyLog.append(h);
+            persistence.executor().execute(() -> {
+                try {
+                    Files.move(historyFile, historyFile.resolveSibling("history.json.bak"), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    System.err.println("备份旧历史记录失败: " + e.getMessage());
                 }
+            });
+        }
+        searchIndex = loaded.index();
+        bookmarks = loaded.bookmarks();
+        bookmarks.addListener(bookmarkSaver);
+        bookmarkLinks.setStore(bookmarks);
+        downloadTasks.addAll(0, loaded.downloads());
+    }
+
+    // 地址栏边输边联想：从历史和书签的索引里取前几条，按 frecency 排好
+    private void attachSuggestions(BrowserTab bt) {
+        TextField field = bt.urlField;
+        ContextMenu menu = new ContextMenu();
+        field.textProperty().addListener((obs, old, text) -> {
+            if (!field.isFocused() || text.isBlank() || text.startsWith("/ai ")) {
+                menu.hide();
+                return;
+            }
+            List<SearchIndex.Doc> hits = searchIndex.query(text, 8, System.currentTimeMillis());
+            if (hits.isEmpty()) {
+                menu.hide();
+                return;
+            }
+            List<MenuItem> items = new ArrayList<>();
+            for (SearchIndex.Doc doc : hits) {
+                Label label = new Label((doc.bookmarked ? "⭐ " : "") + (doc.title.isEmpty() ? doc.url : doc.title + "  —  " + doc.url));
+                label.setMaxWidth(580);
+                CustomMenuItem item = new CustomMenuItem(label, true);
+                item.setOnAction(e -> {
+                    field.setText(doc.url);
+                    menu.hide();
+                    loadUrl(doc.url, bt);
+                });
+                items.add(item);
+            }
+            menu.getItems().setAll(items);
+            if (!menu.isShowing()) menu.show(field, Side.BOTTOM, 0, 0);
+        });
+        field.focusedProperty().addListener((obs, old, focused) -> {
+            if (!focused) menu.hide();
+        });
+        field.addEventFilter(KeyEvent.KEY_PRESSED, e -> {
+            if (e.getCode() == KeyCode.ENTER || e.getCode() == KeyCode.ESCAPE) menu.hide();
+        });
+    }
+
+    private void showHistoryWindow() {
+        // 历史还没读完时等读完再打开
+        storesLoaded.thenRun(() -> Platform.runLater(
+                () -> new HistoryWindow(historyLog, url -> createNewTab(url, false, true)).show()));
+    }
+
+    // 在 FX 线程上拍下渲染好的 DOM，取资源和写归档放到后台
+    private void saveSnapshot(BrowserTab bt) {
+        if (bt.incognito) {
+            showAlert("保存快照", "私密标签页不保存快照");
+            return;
+        }
+        if (bt.webView == null || bt.url == null || bt.url.equals(WELCOME_URL) || SnapshotStore.isSnapshot(bt.url)) return;
+        String id = SnapshotStore.newId();
+        String url = bt.url;
+        String title = bt.title;
+        Object captured;
+        try {
+            captured = bt.engine().executeScript(SnapshotStore.captureScript(id));
+        } catch (RuntimeException e) {
+            showAlert("保存快照", "保存失败: " + e.getMessage());
+            return;
+        }
+        if (!(captured instanceof String json)) return;
+        Thread.ofVirtual().name("lantern-snapshot").start(() -> {
+            try {
+                SnapshotStore.Info info = snapshots.save(id, url, title, json);
+                Platform.runLater(() -> showAlert("保存快照", String.format("已保存“%s”（%.0f KB），断网时也能在“📦 快照”里打开",
+                        info.title(), info.size() / 1024.0)));
+            } catch (IOException e) {
+                Platform.runLater(() -> showAlert("保存快照", "保存失败: " + e.getMessage()));
             }
         });
-        VBox vbox = new VBox(new Label("双击任意记录即可返回"), list);
-        vbox.setPadding(new Insets(10));
-        s.setScene(new Scene(vbox, 500, 500));
-        s.show();
     }
 
     private void downloadFile(String url, String defaultName) {
@@ -351,38 +656,161 @@ public class Lantern extends Application {
         String filename = defaultName.isEmpty() ? url.replaceAll(".*/", "").split("\\?")[0] : defaultName;
         if (filename.isEmpty()) filename = "download.bin";
         Path target = dir.toPath().resolve(filename);
-        DownloadTask task = new DownloadTask(url, target);
+        DownloadTask task = new DownloadTask(url, target, downloadJournalDir, downloadScheduler, downloadIndex);
         downloadTasks.add(task);
         task.start();
     }
 
     private void showDownloadsWindow() {
+        new DownloadsWindow(downloadTasks, downloadIndex).show();
+    }
+
+    private void enforceTabBudget() {
+        if (booleanSetting("tabs.hibernate.enabled", true)) {
+            BrowserTab selected = selectedBrowserTab();
+            long now = System.currentTimeMillis();
+            long idleMillis = intSetting("tabs.hibernate.idleMinutes", 15) * 60_000L;
+            int maxLive = intSetting("tabs.maxLive", 8);
+            long heapBudget = intSetting("tabs.heapBudgetMB", 0) * 1024L * 1024L;
+            Runtime rt = Runtime.getRuntime();
+            // 堆内存要等 GC 之后才会回落，所以每次检查最多因为内存多休眠一个
+            boolean overHeap = heapBudget > 0 && rt.totalMemory() - rt.freeMemory() > heapBudget;
+
+            List<BrowserTab> candidates = browserTabs.stream()
+                    .filter(t -> t.isLive() && t != selected)
+                    .sorted(Comparator.comparingLong(t -> t.lastActive))
+                    .collect(Collectors.toList());
+            int live = (int) browserTabs.stream().filter(BrowserTab::isLive).count();
+            for (BrowserTab t : candidates) {
+                boolean idle = idleMillis > 0 && now - t.lastActive >= idleMillis;
+                boolean overCount = maxLive > 0 && live > maxLive;
+                if (idle || overCount || overHeap) {
+                    t.hibernate();
+                    live--;
+                    overHeap = false;
+                }
+            }
+        }
+        updateTabStats();
+    }
+
+    private void updateTabStats() {
+        if (tabStatsLabel != null) tabStatsLabel.setText(tabStatsText());
+    }
+
+    private String tabStatsText() {
+        long live = browserTabs.stream().filter(BrowserTab::isLive).count();
+        long sleeping = browserTabs.stream().filter(BrowserTab::isHibernated).count();
+        long queued = browserTabs.stream().filter(t -> pageLoads.isQueued(t)).count();
+        return "活跃 " + live + " / 休眠 " + sleeping + (queued > 0 ? " / 排队 " + queued : "");
+    }
+
+    private void showSettingsWindow() {
         Stage s = new Stage();
-        s.setTitle("下载中心");
-        ListView<String> list = new ListView<>();
-        list.setItems(FXCollections.observableArrayList(
-                downloadTasks.stream()
-                        .map(t -> t.status.get() + " - " + t.target.getFileName())
-                        .collect(Collectors.toList())
-        ));
-        Button refresh = new Button("刷新状态");
-        refresh.setOnAction(e -> {
-            list.getItems().setAll(
-                    downloadTasks.stream()
-                            .map(t -> t.status.get() + " - " + t.target.getFileName())
-                            .collect(Collectors.toList())
-            );
+        s.setTitle("设置");
+        CheckBox hibernate = new CheckBox("自动休眠不常用的标签页");
+        hibernate.setSelected(booleanSetting("tabs.hibernate.enabled", true));
+        Spinner<Integer> idleMinutes = new Spinner<>(0, 1440, intSetting("tabs.hibernate.idleMinutes", 15));
+        Spinner<Integer> maxLive = new Spinner<>(0, 500, intSetting("tabs.maxLive", 8));
+        Spinner<Integer> heapBudget = new Spinner<>(0, 65536, intSetting("tabs.heapBudgetMB", 0), 128);
+        idleMinutes.setEditable(true);
+        maxLive.setEditable(true);
+        heapBudget.setEditable(true);
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(8);
+        grid.addRow(0, new Label("闲置多少分钟后休眠（0 = 不限）"), idleMinutes);
+        grid.addRow(1, new Label("最多同时活跃的标签页（0 = 不限）"), maxLive);
+        grid.addRow(2, new Label("内存预算 MB（0 = 不限）"), heapBudget);
+
+        Spinner<Integer> maxDownloads = new Spinner<>(1, 32, intSetting("downloads.maxConcurrent", 3));
+        Spinner<Integer> maxPerHost = new Spinner<>(1, 64, intSetting("downloads.maxPerHost", 6));
+        Spinner<Integer> maxKBps = new Spinner<>(0, 1_000_000, intSetting("downloads.maxKBps", 0), 100);
+        maxDownloads.setEditable(true);
+        maxPerHost.setEditable(true);
+        maxKBps.setEditable(true);
+        grid.addRow(3, new Label("同时进行的下载数"), maxDownloads);
+        grid.addRow(4, new Label("每个网站最多连接数"), maxPerHost);
+        grid.addRow(5, new Label("下载总限速 KB/s（0 = 不限）"), maxKBps);
+
+        Spinner<Integer> aiTtl = new Spinner<>(0, 24 * 365, intSetting("ai.cacheTtlHours", 24));
+        Spinner<Integer> aiCacheMB = new Spinner<>(1, 4096, intSetting("ai.cacheMB", 20));
+        aiTtl.setEditable(true);
+        aiCacheMB.setEditable(true);
+        grid.addRow(6, new Label("AI 回答缓存小时数（0 = 不缓存）"), aiTtl);
+        grid.addRow(7, new Label("AI 缓存磁盘上限 MB"), aiCacheMB);
+        Spinner<Integer> httpCacheMB = new Spinner<>(0, 65536, intSetting("http.cacheMB", 200), 50);
+        httpCacheMB.setEditable(true);
+        grid.addRow(8, new Label("网页缓存磁盘上限 MB（0 = 不缓存）"), httpCacheMB);
+        Spinner<Integer> maxBackgroundLoads = new Spinner<>(1, 32, intSetting("tabs.maxBackgroundLoads", 2));
+        maxBackgroundLoads.setEditable(true);
+        grid.addRow(9, new Label("后台标签页同时加载数"), maxBackgroundLoads);
+        Spinner<Integer> snapshotMB = new Spinner<>(0, 65536, intSetting("snapshots.maxMB", 200), 50);
+        snapshotMB.setEditable(true);
+        grid.addRow(10, new Label("离线快照磁盘上限 MB"), snapshotMB);
+        CheckBox blocker = new CheckBox("拦截广告和跟踪器（规则放在 ~/.lantern/filters）");
+        blocker.setSelected(booleanSetting("blocker.enabled", true));
+        CheckBox restoreSession = new CheckBox("启动时恢复上次打开的标签页");
+        restoreSession.setSelected(booleanSetting("session.restore", true));
+
+        Label stats = new Label("标签页：" + tabStatsText());
+        Label aiStats = new Label("AI 缓存：" + aiCache.statsText());
+        aiStats.setWrapText(true);
+        Label httpStats = new Label("网页缓存：" + httpCache.statsText());
+        httpStats.setWrapText(true);
+        Label blockerStats = new Label("拦截：" + contentBlocker.statsText());
+        blockerStats.setWrapText(true);
+        Label loadStats = new Label("页面加载：" + pageLoads.statsText());
+        loadStats.setWrapText(true);
+        Label snapshotStats = new Label("离线快照：" + snapshots.statsText());
+        snapshotStats.setWrapText(true);
+        Button importBookmarks = new Button("导入书签（HTML）…");
+        importBookmarks.setOnAction(e -> importBookmarks(s));
+        Button save = new Button("保存");
+        save.setOnAction(e -> {
+            settings.setProperty("tabs.hibernate.enabled", String.valueOf(hibernate.isSelected()));
+            settings.setProperty("tabs.hibernate.idleMinutes", String.valueOf(idleMinutes.getValue()));
+            settings.setProperty("tabs.maxLive", String.valueOf(maxLive.getValue()));
+            settings.setProperty("tabs.heapBudgetMB", String.valueOf(heapBudget.getValue()));
+            settings.setProperty("downloads.maxConcurrent", String.valueOf(maxDownloads.getValue()));
+            settings.setProperty("downloads.maxPerHost", String.valueOf(maxPerHost.getValue()));
+            settings.setProperty("downloads.maxKBps", String.valueOf(maxKBps.getValue()));
+            settings.setProperty("ai.cacheTtlHours", String.valueOf(aiTtl.getValue()));
+            settings.setProperty("ai.cacheMB", String.valueOf(aiCacheMB.getValue()));
+            settings.setProperty("http.cacheMB", String.valueOf(httpCacheMB.getValue()));
+            settings.setProperty("tabs.maxBackgroundLoads", String.valueOf(maxBackgroundLoads.getValue()));
+            settings.setProperty("snapshots.maxMB", String.valueOf(snapshotMB.getValue()));
+            settings.setProperty("blocker.enabled", String.valueOf(blocker.isSelected()));
+            settings.setProperty("session.restore", String.valueOf(restoreSession.isSelected()));
+            saveSettings();
+            aiCache.reconfigure(aiCacheMB.getValue() * 1024L * 1024L, aiTtl.getValue() * 3_600_000L);
+            httpCache.reconfigure(httpCacheMB.getValue() * 1024L * 1024L);
+            contentBlocker.setEnabled(blocker.isSelected());
+            pageLoads.reconfigure(maxBackgroundLoads.getValue());
+            snapshots.reconfigure(snapshotMB.getValue() * 1024L * 1024L);
+            saveSession();
+            downloadScheduler.reconfigure(maxDownloads.getValue(), maxPerHost.getValue(), maxKBps.getValue() * 1024L);
+            enforceTabBudget();
+            stats.setText("标签页：" + tabStatsText());
+            aiStats.setText("AI 缓存：" + aiCache.statsText());
+            httpStats.setText("网页缓存：" + httpCache.statsText());
+            blockerStats.setText("拦截：" + contentBlocker.statsText());
+            loadStats.setText("页面加载：" + pageLoads.statsText());
+            snapshotStats.setText("离线快照：" + snapshots.statsText());
         });
-        VBox vbox = new VBox(refresh, list);
+
+        VBox vbox = new VBox(10, hibernate, grid, blocker, restoreSession, stats, aiStats, httpStats, blockerStats, loadStats,
+                snapshotStats, new HBox(10, save, importBookmarks));
         vbox.setPadding(new Insets(10));
-        s.setScene(new Scene(vbox, 400, 400));
+        s.setScene(new Scene(vbox, 440, 760));
         s.show();
     }
 
     private void toggleTheme() {
         isDarkMode = !isDarkMode;
         applyTheme(primaryStage.getScene());
-        updateBookmarkBar(bookmarkBar);
+        applyBarTheme(bookmarkBar);
     }
 
     private void applyTheme(Scene scene) {
@@ -393,100 +821,111 @@ public class Lantern extends Application {
         }
     }
 
-    private void saveBookmarks() {
-        try {
-            StringBuilder sb = new StringBuilder("[\n");
-            for (int i = 0; i < bookmarks.size(); i++) {
-                Map<String, String> bm = bookmarks.get(i);
-                sb.append(String.format("  {\"title\":\"%s\",\"url\":\"%s\"}%s\n",
-                        escapeJson(bm.get("title")),
-                        escapeJson(bm.get("url")),
-                        i == bookmarks.size() - 1 ? "" : ","
-                ));
-            }
-            sb.append("]");
-            Files.writeString(bookmarksFile, sb.toString(), StandardCharsets.UTF_8);
+    private void loadSettings() {
+        if (!Files.exists(settingsFile)) return;
+        try (Reader r = Files.newBufferedReader(settingsFile, StandardCharsets.UTF_8)) {
+            settings.load(r);
         } catch (Exception e) {
-            e.printStackTrace();
+            System.err.println("读取设置失败: " + e.getMessage());
         }
     }
 
-    private void loadBookmarks() {
-        if (!Files.exists(bookmarksFile)) return;
+    private void saveSettings() {
+        Properties snapshot = new Properties();
+        snapshot.putAll(settings);
+        persistence.save(settingsFile, w -> snapshot.store(w, "Lantern settings"));
+    }
+
+    private int intSetting(String key, int def) {
         try {
-            String content = Files.readString(bookmarksFile, StandardCharsets.UTF_8);
-            String[] entries = content.replaceFirst("^\\[", "").replaceFirst("\\]$", "").split("\\},\\{");
-            for (String entry : entries) {
-                entry = entry.replace("{", "").replace("}", "");
-                String[] pairs = entry.split("\",\"");
-                String title = "", url = "";
-                for (String pair : pairs) {
-                    String[] kv = pair.split("\":\"", 2);
-                    if (kv.length == 2) {
-                        String key = kv[0].replace("\"", "");
-                        String value = kv[1].replace("\"", "");
-                        if ("title".equals(key)) title = value;
-                        else if ("url".equals(key)) url = value;
-                    }
-                }
-                if (!title.isEmpty() && !url.isEmpty()) {
-                    bookmarks.add(Map.of("title", title, "url", url));
-                }
-            }
-        } catch (Exception e) {
-            /* ignore */
+            return Integer.parseInt(settings.getProperty(key, String.valueOf(def)).trim());
+        } catch (NumberFormatException e) {
+            return def;
         }
     }
 
-    private void saveHistory() {
-        try {
-            StringBuilder sb = new StringBuilder("[\n");
-            for (int i = 0; i < historyList.size(); i++) {
-                Map<String, String> h = historyList.get(i);
-                sb.append(String.format("  {\"title\":\"%s\",\"url\":\"%s\",\"time\":\"%s\"}%s\n",
-                        escapeJson(h.get("title")),
-                        escapeJson(h.get("url")),
-                        h.get("time"),
-                        i == historyList.size() - 1 ? "" : ","
-                ));
-            }
-            sb.append("]");
-            Files.writeString(historyFile, sb.toString(), StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            e.printStackTrace();
+    private boolean booleanSetting(String key, boolean def) {
+        return Boolean.parseBoolean(settings.getProperty(key, String.valueOf(def)).trim());
+    }
+
+    // 书签有改动就存盘，新加的书签也放进地址栏联想的索引
+    private final BookmarkStore.Listener bookmarkSaver = new BookmarkStore.Listener() {
+        @Override
+        public void added(BookmarkStore.Node parent, int index, BookmarkStore.Node node) {
+            indexBookmarks(node);
+            saveBookmarks();
+        }
+
+        @Override
+        public void removed(BookmarkStore.Node parent, int index, BookmarkStore.Node node) {
+            saveBookmarks();
         }
+
+        @Override
+        public void renamed(BookmarkStore.Node node) {
+            saveBookmarks();
+        }
+    };
+
+    private void indexBookmarks(BookmarkStore.Node node) {
+        if (!node.isFolder()) searchIndex.addBookmark(node.title, node.url);
+        else for (BookmarkStore.Node child : node.children) indexBookmarks(child);
     }
 
-    private void loadHistory() {
-        if (!Files.exists(historyFile)) return;
-        try {
-            String content = Files.readString(historyFile, StandardCharsets.UTF_8);
-            String[] entries = content.replaceFirst("^\\[", "").replaceFirst("\\]$", "").split("\\},\\{");
-            for (String entry : entries) {
-                entry = entry.replace("{", "").replace("}", "");
-                String[] pairs = entry.split("\",\"");
-                String title = "", url = "", time = "";
-                for (String pair : pairs) {
-                    String[] kv = pair.split("\":\"", 2);
-                    if (kv.length == 2) {
-                        String key = kv[0].replace("\"", "");
-                        String value = kv[1].replace("\"", "");
-                        if ("title".equals(key)) title = value;
-                        else if ("url".equals(key)) url = value;
-                        else if ("time".equals(key)) time = value;
-                    }
-                }
-                if (!title.isEmpty() && !url.isEmpty() && !time.isEmpty()) {
-                    historyList.add(Map.of("title", title, "url", url, "time", time));
-                }
-            }
+    // 在 FX 线程上只拷一份快照，序列化和写盘都交给后台
+    private void saveBookmarks() {
+        List<BookmarkStore.Saved> snapshot = bookmarks.snapshot();
+        persistence.save(bookmarksFile, out -> BookmarkStore.write(out, snapshot));
+    }
+
+    private BookmarkStore loadBookmarks() {
+        if (!Files.exists(bookmarksFile)) return new BookmarkStore();
+        try (Reader r = Files.newBufferedReader(bookmarksFile, StandardCharsets.UTF_8)) {
+            return BookmarkStore.read(r);
         } catch (Exception e) {
-            /* ignore */
+            System.err.println("读取书签失败: " + e.getMessage());
+            return new BookmarkStore();
         }
     }
 
-    private String escapeJson(String s) {
-        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    // 当前页面加到书签栏末尾
+    private void bookmarkPage(BrowserTab bt) {
+        storesLoaded.thenRun(() -> Platform.runLater(() -> {
+            if (bt.url == null || bt.url.equals(WELCOME_URL)) return;
+            bookmarks.addBookmark(bookmarks.bar, bt.title == null || bt.title.isBlank() ? bt.url : bt.title, bt.url);
+        }));
+    }
+
+    // 浏览器导出的书签 HTML 在后台边读边解析，拼好的整棵树一次挂到“其他书签”下
+    private void importBookmarks(Stage owner) {
+        FileChooser fc = new FileChooser();
+        fc.setTitle("导入书签");
+        fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("书签 HTML", "*.html", "*.htm"));
+        File file = fc.showOpenDialog(owner);
+        if (file == null) return;
+        String title = "导入的书签 " + java.time.LocalDateTime.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+        Thread.ofVirtual().name("lantern-import").start(() -> {
+            try (Reader r = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                BookmarkStore.Draft tree = BookmarkImporter.parse(r, title);
+                int count = BookmarkImporter.countBookmarks(tree);
+                storesLoaded.thenRun(() -> Platform.runLater(() -> {
+                    bookmarks.adopt(bookmarks.other, tree);
+                    showAlert("导入书签", "已导入 " + count + " 个书签，放在“其他书签 / " + title + "”里");
+                }));
+            } catch (IOException e) {
+                Platform.runLater(() -> showAlert("导入书签", "导入失败: " + e.getMessage()));
+            }
+        });
+    }
+
+    private List<HistoryEntry> readLegacyHistory() {
+        if (!Files.exists(historyFile)) return List.of();
+        try {
+            return HistoryLog.readLegacy(historyFile);
+        } catch (IOException e) {
+            System.err.println("读取旧历史记录失败: " + e.getMessage());
+            return List.of();
+        }
     }
 
     private void showAlert(String title, String msg) {
@@ -509,159 +948,467 @@ public class Lantern extends Application {
         return null;
     }
 
-    private CompletableFuture<String> callQwenAPI(String prompt) {
+    // /ai 提问：先打开一个空的回答页，文字边生成边填进去；关掉标签页就断开请求
+    private void askAi(String prompt) {
+        BrowserTab bt = createNewTab(aiAnswerUrl(""), false);
+        WebEngine engine = bt.engine();
+        StringBuilder answer = new StringBuilder();
+        Runnable render = () -> {
+            if (bt.ownsEngine(engine) && engine.getLoadWorker().getState() == Worker.State.SUCCEEDED) {
+                engine.executeScript("(() => { const el = document.getElementById('answer'); if (el) el.textContent = "
+                        + JsonWriter.quote(answer.toString()) + "; })()");
+            }
+        };
+        // 页面还没加载完时收到的文字先攒着，加载完一次补上
+        engine.getLoadWorker().stateProperty().addListener((obs, old, state) -> {
+            if (state == Worker.State.SUCCEEDED) render.run();
+        });
+        CompletableFuture<String> request = callQwenAPI(prompt, delta -> {
+            answer.append(delta);
+            render.run();
+        });
+        bt.tab.addEventHandler(Tab.CLOSED_EVENT, e -> request.cancel(true));
+        request.thenAccept(result -> Platform.runLater(() -> {
+            answer.setLength(0);
+            answer.append(result);
+            render.run();
+            // 记下完整回答的页面，标签页休眠后恢复时直接显示整段
+            bt.url = aiAnswerUrl(result);
+        }));
+    }
+
+    private static String aiAnswerUrl(String answer) {
+        String escaped = answer.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        String html = "<html><head><meta charset='UTF-8'></head><body><h2>Lantern AI 回答</h2>"
+                + "<pre id='answer' style='white-space: pre-wrap'>" + escaped + "</pre></body></html>";
+        return "data:text/html," + URLEncoder.encode(html, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    // onDelta 在 FX 线程上收到陆续生成的文字片段；命中缓存时一次收到整段。
+    // 返回的 future 以完整回答（或给用户看的出错提示）结束，cancel 它会断开请求
+    private CompletableFuture<String> callQwenAPI(String prompt, Consumer<String> onDelta) {
+        CompletableFuture<String> answer = askQwen(prompt, onDelta);
+        CompletableFuture<String> result = answer.exceptionally(this::userMessage);
+        result.whenComplete((v, ex) -> {
+            if (result.isCancelled()) answer.cancel(true);
+        });
+        return result;
+    }
+
+    // 和 callQwenAPI 一样，但出错时以异常结束，方便组合多个请求
+    private CompletableFuture<String> askQwen(String prompt, Consumer<String> onDelta) {
         String apiKey = readApiKey();
         if (apiKey == null || apiKey.isEmpty()) {
-            return CompletableFuture.completedFuture(
+            return CompletableFuture.failedFuture(new IOException(
                     "❌ 哎呀，我好像找不到你的魔法钥匙（API Key）！\n请在 ~/.lantern/api_key 文件里放好你的 DashScope Key，这样我才能帮你哦~"
-            );
+            ));
         }
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                URL url = new URL("https://dashscope.aliyuncs.com/api/v1/services/aigc/text-generation/generation");
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Authorization", "Bearer " + apiKey);
-                conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-                conn.setDoOutput(true);
-
-                String jsonInput = String.format("""
-                        {
-                          "model": "qwen-max",
-                          "input": {
-                            "messages": [
-                              {"role": "user", "content": "%s"}
-                            ]
-                          },
-                          "parameters": {
-                            "result_format": "message"
-                          }
-                        }
-                        """, prompt.replace("\"", "\\\""));
-
-                try (OutputStream os = conn.getOutputStream()) {
-                    byte[] input = jsonInput.getBytes(StandardCharsets.UTF_8);
-                    os.write(input, 0, input.length);
-                }
+        AtomicBoolean streamed = new AtomicBoolean();
+        // 只有正常拿到的回答才会进缓存，出错的提示每次都重新请求
+        CompletableFuture<String> answer = aiCache.get(qwen.model(), prompt, () -> qwen.stream(apiKey, prompt, delta -> {
+            streamed.set(true);
+            Platform.runLater(() -> onDelta.accept(delta));
+        }));
+        CompletableFuture<String> result = answer.thenApply(text -> {
+            // 缓存命中或者合并到别人的请求上时没有增量，整段补上
+            if (!streamed.get()) Platform.runLater(() -> onDelta.accept(text));
+            return text;
+        });
+        result.whenComplete((v, ex) -> {
+            if (result.isCancelled()) answer.cancel(true);
+        });
+        return result;
+    }
 
-                int status = conn.getResponseCode();
-                InputStream is = (status >= 200 && status < 300) ? conn.getInputStream() : conn.getErrorStream();
-                String response = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+    // 出错提示本身就写在异常消息里
+    private String userMessage(Throwable ex) {
+        Throwable cause = ex;
+        while (cause instanceof CompletionException && cause.getCause() != null) cause = cause.getCause();
+        return cause.getMessage();
+    }
 
-                if (status >= 200 && status < 300) {
-                    int start = response.indexOf("\"content\":\"") + 11;
-                    int end = response.indexOf("\"", start);
-                    if (end > start) {
-                        return response.substring(start, end).replace("\\n", "\n").replace("\\\"", "\"");
-                    }
-                    return "✅ 我收到了服务器的回复，但里面的内容有点乱，没能完全看懂:\n" + response;
+    // 一个浏览器标签页。休眠时 WebView 会被释放，只保留网址、标题、滚动位置和前进后退记录，再次选中时重新创建
+    class BrowserTab {
+        final boolean incognito;
+        final Tab tab;
+        final BorderPane content = new BorderPane();
+        final TextField urlField = new TextField();
+        WebView webView;
+        String url;
+        String title;
+        double scrollX, scrollY;
+        boolean restoreScroll;
+        // 休眠前引擎里的前进后退记录，栈顶是离当前页最近的一条
+        final Deque<String> savedBack = new ArrayDeque<>();
+        final Deque<String> savedForward = new ArrayDeque<>();
+        boolean replayingHistory;
+        long lastActive = System.currentTimeMillis();
+        // 当前页面所在的站点，和打开它以来这个站点上拦下的请求数（同一站点的其他标签页拦下的也算）
+        String pageSite;
+        int blockedCount;
+        final Label blockedLabel = new Label();
+        final Tooltip blockedTip = new Tooltip();
+        final PerformancePanel.LoadMetrics loadMetrics = new PerformancePanel.LoadMetrics();
+        // 引擎当前这次加载在 pageLoads 里的编号
+        long loadToken;
+        // 页面只弱引用桥对象，这里要一直拿着
+        ExtensionBridge extensionBridge;
+
+        BrowserTab(boolean incognito) {
+            this.incognito = incognito;
+            tab = new Tab(displayTitle());
+            tab.setUserData(this);
+            urlField.setPrefWidth(600);
+            urlField.setOnAction(e -> {
+                String input = urlField.getText().trim();
+                if (input.startsWith("/ai ")) {
+                    askAi(input.substring(4));
                 } else {
-                    return "❌ 服务器好像不太开心 (" + status + "):\n" + response;
+                    loadUrl(input, this);
                 }
-            } catch (Exception e) {
-                return "💥 哎呀，网络出问题了: " + e.getMessage();
+            });
+
+            HBox toolbar = new HBox(5);
+            toolbar.setAlignment(Pos.CENTER_LEFT);
+            toolbar.setPadding(new Insets(5));
+            toolbar.getChildren().addAll(
+                    createNavButton("◀ 返回", this::goBack),
+                    createNavButton("▶ 前进", this::goForward),
+                    createNavButton("🔄 刷新", this::reload),
+                    createNavButton("🏠 首页", () -> loadWelcome(this)),
+                    createNavButton("☆ 收藏", () -> bookmarkPage(this)),
+                    createNavButton("📥 快照", () -> saveSnapshot(this)),
+                    new Label(" "),
+                    urlField,
+                    blockedLabel
+            );
+            blockedLabel.setTooltip(blockedTip);
+
+            attachSuggestions(this);
+            content.setTop(toolbar);
+            tab.setContent(content);
+            tab.setOnClosed(e -> {
+                browserTabs.remove(this);
+                pageLoads.cancel(this);
+                discardWebView();
+                updateTabStats();
+                saveSession();
+            });
+        }
+
+        boolean isLive() {
+            return webView != null;
+        }
+
+        void countBlocked(String blockedUrl) {
+            blockedCount++;
+            blockedLabel.setText("🛡 " + blockedCount);
+            blockedTip.setText("打开这个页面以来，" + pageSite + " 上已拦截 " + blockedCount
+                    + " 个广告和跟踪请求（同一站点的其他标签页也算在内）\n最近一个：" + blockedUrl);
+        }
+
+        private void resetBlocked(String location) {
+            String host = location == null ? null : ContentBlocker.hostOf(location);
+            pageSite = host == null ? null : ContentBlocker.siteOf(host);
+            blockedCount = 0;
+            blockedLabel.setText("");
+        }
+
+        // 没有引擎、也不在首页、也不在排队等加载的标签页
+        boolean isHibernated() {
+            return webView == null && url != null && !pageLoads.isQueued(this);
+        }
+
+        String displayTitle() {
+            if (title == null) return incognito ? "🔒 私密窗口" : "新标签页";
+            return (incognito ? "🔒 " : "") + (title.length() > 30 ? title.substring(0, 30) + "..." : title);
+        }
+
+        WebEngine engine() {
+            pageLoads.runNow(this);
+            wake();
+            if (webView == null) {
+                // 首页用的是普通控件，真要用引擎时再按 data URL 打开
+                createWebView();
+                url = WELCOME_URL;
+                webView.getEngine().load(url);
+                updateTabStats();
             }
-        });
-    }
+            return webView.getEngine();
+        }
 
-    class DownloadTask {
-        String url;
-        Path target;
-        SimpleStringProperty status = new SimpleStringProperty("排队中...");
-        long totalSize = 0;
-        long downloaded = 0;
-        boolean paused = false;
-        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        void load(String target) {
+            if (webView == null && target.equals(WELCOME_URL)) {
+                pageLoads.cancel(this);
+                showWelcome();
+                return;
+            }
+            // 休眠中的当前页要算进后退记录；还在排队的网址没打开过，不算
+            if (webView == null && !pageLoads.isQueued(this)) {
+                if (url != null) savedBack.push(url);
+                savedForward.clear();
+            }
+            url = target;
+            if (!pageLoads.request(this, () -> startLoad(target))) {
+                // 排队时先不建 WebView
+                if (webView == null) showPlaceholder("⏳", "这个标签页在排队等待加载，选中它就会马上开始");
+                else tab.setText("⏳ " + displayTitle());
+            }
+            updateTabStats();
+        }
 
-        DownloadTask(String url, Path target) {
-            this.url = url;
-            this.target = target;
+        private void startLoad(String target) {
+            if (webView == null) createWebView();
+            tab.setText(displayTitle());
+            loadMetrics.start(target);
+            webView.getEngine().load(target);
+            updateTabStats();
         }
 
-        void start() {
-            CompletableFuture.runAsync(() -> {
-                try {
-                    URL u = new URL(url);
-                    HttpURLConnection conn = (HttpURLConnection) u.openConnection();
-                    conn.setRequestMethod("HEAD");
-                    totalSize = conn.getContentLengthLong();
-                    conn.disconnect();
-
-                    if (totalSize <= 0) {
-                        singleThreadDownload();
-                        return;
+        // 首页不需要网页引擎，用普通控件画出来；第一次打开真正的网页时才创建 WebView
+        private void showWelcome() {
+            if (url != null) {
+                savedBack.push(url);
+                savedForward.clear();
+            }
+            url = null;
+            title = null;
+            urlField.setText("");
+            content.setCenter(welcomeView());
+            tab.setText(displayTitle());
+            updateTabStats();
+        }
+
+        void wake() {
+            if (webView != null || url == null || pageLoads.isQueued(this)) return;
+            createWebView();
+            tab.setText(displayTitle());
+            if (url != null) {
+                replayingHistory = true;
+                restoreScroll = true;
+                webView.getEngine().load(url);
+            }
+            updateTabStats();
+        }
+
+        void hibernate() {
+            if (webView == null) return;
+            WebEngine engine = webView.getEngine();
+            String location = engine.getLocation();
+            if (location != null && !location.isEmpty()) url = location;
+            try {
+                String[] xy = String.valueOf(engine.executeScript("window.scrollX + ',' + window.scrollY")).split(",");
+                scrollX = Double.parseDouble(xy[0]);
+                scrollY = Double.parseDouble(xy[1]);
+            } catch (Exception ex) {
+                scrollX = scrollY = 0;
+            }
+            WebHistory history = engine.getHistory();
+            List<WebHistory.Entry> entries = history.getEntries();
+            int current = history.getCurrentIndex();
+            for (int i = 0; i < current; i++) savedBack.push(entries.get(i).getUrl());
+            for (int i = entries.size() - 1; i > current; i--) savedForward.push(entries.get(i).getUrl());
+
+            discardWebView();
+            showPlaceholder("💤", "这个标签页正在休息，选中它就会醒来");
+            updateTabStats();
+        }
+
+        private void showPlaceholder(String icon, String message) {
+            Label hint = new Label(icon + " " + message + "\n" + (url == null ? "" : url));
+            VBox placeholder = new VBox(hint);
+            placeholder.setAlignment(Pos.CENTER);
+            content.setCenter(placeholder);
+            tab.setText(icon + " " + displayTitle());
+        }
+
+        // 上次会话里的标签页：和休眠的一样只留网址和前进后退记录
+        void restore(SavedTab saved) {
+            title = saved.title();
+            for (String u : saved.back()) savedBack.push(u);
+            for (int i = saved.forward().size() - 1; i >= 0; i--) savedForward.push(saved.forward().get(i));
+            if (saved.url() == null) {
+                showWelcome();
+                return;
+            }
+            url = saved.url();
+            urlField.setText(url);
+            showPlaceholder("💤", "这个标签页正在休息，选中它就会醒来");
+        }
+
+        // 当前网址和完整的前进后退记录，活着的引擎里的记录接在休眠前保存的记录后面
+        SavedTab saved() {
+            String current = url;
+            List<String> back = new ArrayList<>();
+            savedBack.descendingIterator().forEachRemaining(back::add);
+            List<String> forward = new ArrayList<>();
+            if (webView != null) {
+                WebEngine engine = webView.getEngine();
+                String location = engine.getLocation();
+                if (location != null && !location.isEmpty()) current = location;
+                WebHistory history = engine.getHistory();
+                List<WebHistory.Entry> entries = history.getEntries();
+                int index = history.getCurrentIndex();
+                for (int i = 0; i < index; i++) back.add(entries.get(i).getUrl());
+                for (int i = index + 1; i < entries.size(); i++) forward.add(entries.get(i).getUrl());
+            }
+            forward.addAll(savedForward);
+            return new SavedTab(WELCOME_URL.equals(current) ? null : current, title, back, forward);
+        }
+
+        void goBack() {
+            WebHistory history = engine().getHistory();
+            if (history.getCurrentIndex() > 0) {
+                history.go(-1);
+                return;
+            }
+            if (savedBack.isEmpty()) return;
+            // 引擎里的记录已经退到头了，接着用休眠前保存的记录
+            List<WebHistory.Entry> entries = history.getEntries();
+            for (int i = entries.size() - 1; i >= 0; i--) savedForward.push(entries.get(i).getUrl());
+            replayFromSaved(history, savedBack.pop());
+        }
+
+        void goForward() {
+            WebHistory history = engine().getHistory();
+            if (history.getCurrentIndex() < history.getEntries().size() - 1) {
+                history.go(1);
+                return;
+            }
+            if (savedForward.isEmpty()) return;
+            for (WebHistory.Entry entry : history.getEntries()) savedBack.push(entry.getUrl());
+            replayFromSaved(history, savedForward.pop());
+        }
+
+        void reload() {
+            if (webView == null) wake();
+            else webView.getEngine().reload();
+        }
+
+        private void replayFromSaved(WebHistory history, String target) {
+            // 清空引擎自己的记录，避免和保存的记录交叉
+            int maxSize = history.getMaxSize();
+            history.setMaxSize(0);
+            history.setMaxSize(maxSize);
+            replayingHistory = true;
+            url = target;
+            webView.getEngine().load(target);
+        }
+
+        private void createWebView() {
+            webView = new WebView();
+            WebEngine engine = webView.getEngine();
+            if (!incognito) {
+                engine.setUserDataDirectory(dataDir.toFile());
+            } else {
+                // 告诉网页缓存私密标签页正在看哪个网站，这些请求不读也不写磁盘缓存。
+                // 不看 ownsEngine：休眠或关闭时引擎换到 about:blank，也要走到这里把旧网站去掉
+                engine.locationProperty().addListener((obs, old, location) -> {
+                    httpCache.leavePrivate(old);
+                    httpCache.enterPrivate(location);
+                });
+            }
+
+            // 页面里点链接发起的导航也算一次加载
+            engine.getLoadWorker().stateProperty().addListener((obs, old, state) -> {
+                if (!ownsEngine(engine)) return;
+                switch (state) {
+                    case SCHEDULED -> {
+                        if (!loadMetrics.running()) loadMetrics.start(engine.getLocation());
+                        loadToken = pageLoads.loadStarted(this);
+                    }
+                    case SUCCEEDED -> {
+                        loadMetrics.finish(true);
+                        pageLoads.finished(this, loadToken);
+                    }
+                    case FAILED -> {
+                        loadMetrics.finish(false);
+                        pageLoads.finished(this, loadToken);
+                        openSnapshotInstead(engine);
+                    }
+                    case CANCELLED -> {
+                        loadMetrics.finish(false);
+                        // 加载中途又开始新的加载（点了链接、再次 load）时先报 CANCELLED 再报新加载的 SCHEDULED。
+                        // 等新加载登记完再还名额，编号已经换了就不会还；中间不会让排队的标签页趁机开始
+                        long token = loadToken;
+                        Platform.runLater(() -> pageLoads.finished(this, token));
                     }
+                    default -> { }
+                }
+            });
 
-                    Files.createDirectories(target.getParent());
-                    Files.deleteIfExists(target);
-                    Files.createFile(target);
-
-                    int numThreads = 4;
-                    long chunkSize = totalSize / numThreads;
-                    for (int i = 0; i < numThreads; i++) {
-                        long start = i * chunkSize;
-                        long end = (i == numThreads - 1) ? totalSize - 1 : start + chunkSize - 1;
-                        int id = i;
-                        chunks.add(CompletableFuture.runAsync(() -> downloadChunk(id, start, end)));
+            engine.getLoadWorker().stateProperty().addListener((obs, old, state) -> {
+                if (state == Worker.State.SUCCEEDED && ownsEngine(engine) && restoreScroll) {
+                    restoreScroll = false;
+                    try {
+                        engine.executeScript("window.scrollTo(" + scrollX + "," + scrollY + ")");
+                    } catch (Exception ex) {
+                        /* ignore */
                     }
+                }
+            });
 
-                    CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
-                            .thenRun(() -> Platform.runLater(() -> status.set("搞定啦！")));
-                } catch (Exception ex) {
-                    Platform.runLater(() -> status.set("失败了: " + ex.getMessage()));
+            // 每个引擎一个桥对象，换页面时重复使用；扩展脚本在新文档出现时注入
+            extensionBridge = extensions.attach(engine);
+
+            engine.locationProperty().addListener((obs, old, location) -> {
+                if (ownsEngine(engine)) resetBlocked(location);
+            });
+
+            engine.getLoadWorker().workDoneProperty().addListener((obs, old, progress) -> {
+                if (progress.intValue() == 100 && ownsEngine(engine)) {
+                    title = (String) engine.executeScript("document.title");
+                    url = engine.getLocation();
+                    tab.setText(displayTitle());
+                    if (!incognito && !SnapshotStore.isSnapshot(url)) addToHistory(title, url);
+                    urlField.setText(url);
+                    saveSession();
                 }
             });
-        }
 
-        private void downloadChunk(int id, long start, long end) {
-            try {
-                URL u = new URL(url);
-                HttpURLConnection conn = (HttpURLConnection) u.openConnection();
-                conn.setRequestProperty("Range", "bytes=" + start + "-" + end);
-                try (InputStream in = conn.getInputStream(); RandomAccessFile raf = new RandomAccessFile(target.toFile(), "rw")) {
-                    raf.seek(start);
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    while (!paused && (bytesRead = in.read(buffer)) != -1) {
-                        raf.write(buffer, 0, bytesRead);
-                        downloaded += bytesRead;
-                        Platform.runLater(() -> status.set(String.format("已下载 %.1f MB / %.1f MB (%.1f%%)",
-                                downloaded / 1e6, totalSize / 1e6, 100.0 * downloaded / totalSize)));
+            engine.getHistory().getEntries().addListener((ListChangeListener<WebHistory.Entry>) c -> {
+                while (c.next()) {
+                    if (c.wasAdded() && ownsEngine(engine)) {
+                        // 新的导航会截断前进记录；恢复或回放保存的记录则不会
+                        if (replayingHistory) replayingHistory = false;
+                        else savedForward.clear();
                     }
                 }
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
-        }
+            });
 
-        private void singleThreadDownload() {
-            try {
-                URL u = new URL(url);
-                try (InputStream in = u.openStream()) {
-                    Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
-                }
-                Platform.runLater(() -> status.set("搞定啦！"));
-            } catch (Exception ex) {
-                Platform.runLater(() -> status.set("失败了: " + ex.getMessage()));
-            }
+            content.setCenter(webView);
         }
 
-        void pause() {
-            paused = true;
+        // 打不开的页面（比如断网了）有离线快照的话改为打开快照
+        private void openSnapshotInstead(WebEngine engine) {
+            if (incognito) return;
+            SnapshotStore.Info saved = snapshots.latestFor(engine.getLocation());
+            if (saved == null) return;
+            Platform.runLater(() -> {
+                if (ownsEngine(engine)) engine.load(SnapshotStore.urlOf(saved.id()));
+            });
         }
 
-        void resume() {
-            if (paused) start();
+        private boolean ownsEngine(WebEngine engine) {
+            return webView != null && webView.getEngine() == engine;
         }
-    }
 
-    public abstract class LanternExtensionAPI {
-        public abstract void log(String msg);
-        public abstract void alert(String msg);
-        public abstract String getBrowserVersion();
+        private void discardWebView() {
+            if (webView == null) return;
+            WebEngine engine = webView.getEngine();
+            webView = null;
+            pageLoads.cancel(this);
+            loadMetrics.stop();
+            extensionBridge.close();
+            extensionBridge = null;
+            content.setCenter(null);
+            engine.load("about:blank");
+        }
     }
 
     public static void main(String[] args) {
+        // 新版 WebView 默认用 java.net.http 取网页，绕过 ResponseCache；换回 URLConnection 才能用磁盘缓存
+        System.setProperty("com.sun.webkit.useHTTP2Loader", "false");
         launch(args);
     }
 }
\ No newline at end of file
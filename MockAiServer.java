@@ -0,0 +1,66 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// 本地假的 DashScope 接口，用来离线调试流式输出：按 SSE 格式每隔一小段时间吐几个字。
+// 用法：javac MockAiServer.java && java MockAiServer [端口] [每段间隔毫秒]
+// 然后在 ~/.lantern/settings.properties 里加 ai.endpoint=http://127.0.0.1:8089/api/v1/services/aigc/text-generation/generation，
+// ~/.lantern/api_key 里随便放一个值
+public class MockAiServer {
+    private static final String ANSWER = "这是本地测试服务器给出的回答。它会一小段一小段地发出来，"
+            + "方便检查界面是不是边收边显示、关掉窗口后请求是不是马上停下。\n第二段：\"引号\"、反斜杠 \\ 和换行都应该原样显示。";
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        long delay = args.length > 1 ? Long.parseLong(args[1]) : 80;
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            boolean sse = "enable".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("X-DashScope-SSE"));
+            exchange.getResponseHeaders().set("Content-Type", sse ? "text/event-stream; charset=utf-8" : "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if (!sse) {
+                    out.write(event(ANSWER, "stop").getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                int id = 0;
+                for (int i = 0; i < ANSWER.length(); i += 4) {
+                    String piece = ANSWER.substring(i, Math.min(ANSWER.length(), i + 4));
+                    String finish = i + 4 >= ANSWER.length() ? "stop" : "null";
+                    out.write(("id:" + (++id) + "\nevent:result\n:HTTP_STATUS/200\ndata:" + event(piece, finish) + "\n\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    Thread.sleep(delay);
+                }
+            } catch (IOException e) {
+                // 客户端取消时连接被断开
+                System.out.println("客户端断开了连接");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        System.out.println("假的 AI 服务已启动: http://127.0.0.1:" + port + "/api/v1/services/aigc/text-generation/generation");
+    }
+
+    private static String event(String text, String finish) throws IOException {
+        StringWriter sw = new StringWriter();
+        new JsonWriter(sw).beginObject()
+                .name("output").beginObject()
+                .name("choices").beginArray()
+                .beginObject()
+                .name("message").beginObject().name("content").value(text).name("role").value("assistant").endObject()
+                .name("finish_reason").value(finish)
+                .endObject()
+                .endArray()
+                .endObject()
+                .name("request_id").value("mock")
+                .endObject();
+        return sw.toString();
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// 页面加载排队：选中的标签页随时可以开始加载，其他标签页同时最多加载 maxBackground 个，
+// 多出来的按先来后到等空位；排队中的标签页被选中时直接插队。只在 FX 线程上使用。
+// 每次加载有个编号，名额跟着编号走：旧加载被新加载打断时报的结束不会把新加载的名额还掉
+class PageLoadScheduler<T> {
+    private record Waiting(Runnable start, long queuedAt) {
+    }
+
+    private static final class Load {
+        final long token;
+        // 引擎已经报过开始（loadStarted）
+        boolean claimed;
+
+        Load(long token) {
+            this.token = token;
+        }
+    }
+
+    private final Supplier<T> selected;
+    private int maxBackground;
+    // 每个标签页最多排一个加载，新的请求替换旧的
+    private final LinkedHashMap<T, Waiting> queue = new LinkedHashMap<>();
+    private final Map<T, Load> loading = new HashMap<>();
+    private long nextToken;
+    private long started;
+    private long queuedTotal;
+    private long totalWaitMillis;
+    private long maxWaitMillis;
+
+    PageLoadScheduler(Supplier<T> selected, int maxBackground) {
+        this.selected = selected;
+        this.maxBackground = Math.max(1, maxBackground);
+    }
+
+    void reconfigure(int maxBackground) {
+        this.maxBackground = Math.max(1, maxBackground);
+        pump();
+    }
+
+    // 马上开始了返回 true，排进队列返回 false
+    boolean request(T owner, Runnable start) {
+        queue.remove(owner);
+        loading.remove(owner);
+        long now = System.nanoTime();
+        if (owner == selected.get() || backgroundLoading() < maxBackground) {
+            begin(owner, start, now);
+            return true;
+        }
+        queuedTotal++;
+        queue.put(owner, new Waiting(start, now));
+        return false;
+    }
+
+    boolean isQueued(T owner) {
+        return queue.containsKey(owner);
+    }
+
+    // 不管有没有空位，马上开始这个标签页排着的加载
+    void runNow(T owner) {
+        Waiting w = queue.remove(owner);
+        if (w != null) begin(owner, w.start(), w.queuedAt());
+    }
+
+    // 选中的标签页插队；原来选中、还在加载的标签页从这时起占一个后台名额
+    void selectionChanged() {
+        T current = selected.get();
+        if (current != null) runNow(current);
+        pump();
+    }
+
+    // 引擎开始一次加载（SCHEDULED）时调用，返回这次加载的编号，结束时交给 finished。
+    // 刚由调度器开始的加载用它自己的编号；页面里点链接之类调度器不知道的加载补记一个，占名额但不排队
+    long loadStarted(T owner) {
+        Load load = loading.get(owner);
+        if (load == null || load.claimed) {
+            load = new Load(++nextToken);
+            loading.put(owner, load);
+        }
+        load.claimed = true;
+        return load.token;
+    }
+
+    // 编号对得上才还名额：已经被新的加载顶掉的旧加载结束时什么也不做
+    void finished(T owner, long token) {
+        Load load = loading.get(owner);
+        if (load != null && load.token == token) {
+            loading.remove(owner);
+            pump();
+        }
+    }
+
+    // 标签页关掉或者休眠时调用
+    void cancel(T owner) {
+        queue.remove(owner);
+        if (loading.remove(owner) != null) pump();
+    }
+
+    String statsText() {
+        return String.format("排队 %d，后台加载 %d / %d，共开始 %d 次（排过队 %d 次），平均等待 %d ms，最长 %d ms",
+                queue.size(), backgroundLoading(), maxBackground, started, queuedTotal,
+                started == 0 ? 0 : totalWaitMillis / started, maxWaitMillis);
+    }
+
+    private void pump() {
+        while (!queue.isEmpty() && backgroundLoading() < maxBackground) {
+            T next = queue.keySet().iterator().next();
+            Waiting w = queue.remove(next);
+            begin(next, w.start(), w.queuedAt());
+        }
+    }
+
+    private void begin(T owner, Runnable start, long queuedAt) {
+        long wait = (System.nanoTime() - queuedAt) / 1_000_000;
+        started++;
+        totalWaitMillis += wait;
+        maxWaitMillis = Math.max(maxWaitMillis, wait);
+        // 先占位再开始：加载可能同步失败，这时 finished 会马上把位置还回来
+        loading.put(owner, new Load(++nextToken));
+        start.run();
+    }
+
+    private int backgroundLoading() {
+        T current = selected.get();
+        return loading.size() - (current != null && loading.containsKey(current) ? 1 : 0);
+    }
+}
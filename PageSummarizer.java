@@ -0,0 +1,182 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// 长网页摘要：先取正文，按 token 预算切成若干段，最多 parallelism 段同时请求各自的要点，
+// 再把要点按原顺序合起来做一次汇总（要点太多放不进一次请求时再分一层）。
+// 段数不超过并发数时，总耗时大约是一次分段请求加一次汇总请求
+class PageSummarizer {
+    interface Ai {
+        // 出错时以异常结束；onDelta 收到汇总时陆续生成的文字
+        CompletableFuture<String> ask(String prompt, Consumer<String> onDelta);
+    }
+
+    // 打分找正文：每个够长的段落把字数记到父元素上，一半记到祖父元素上，取分数最高的元素
+    static final String EXTRACT_SCRIPT = """
+            (() => {
+                const scores = new Map();
+                for (const p of document.querySelectorAll('p, pre, li, blockquote, h1, h2, h3, td')) {
+                    const len = (p.textContent || '').trim().length;
+                    if (len < 25) continue;
+                    const parent = p.parentElement;
+                    if (!parent) continue;
+                    scores.set(parent, (scores.get(parent) || 0) + len);
+                    const grand = parent.parentElement;
+                    if (grand) scores.set(grand, (scores.get(grand) || 0) + len / 2);
+                }
+                let best = document.querySelector('article, main, [role=main]');
+                let bestScore = best ? (scores.get(best) || 0) : 0;
+                for (const [el, score] of scores) {
+                    if (score > bestScore) {
+                        best = el;
+                        bestScore = score;
+                    }
+                }
+                const root = best || document.body;
+                return (root.innerText || root.textContent || '').replace(/\\n\\s*\\n+/g, '\\n');
+            })()
+            """;
+
+    static final int MAX_CHARS = 200_000;
+    static final String SINGLE_PROMPT = "你是一个专业的内容摘要助手。请用中文为以下网页内容生成一段简洁的摘要（100字以内）：\n\n";
+    static final String MAP_PROMPT = "下面是一篇长文章中按顺序截取的一部分。请用中文列出这部分的要点（80字以内），不要加开场白：\n\n";
+    static final String REDUCE_PROMPT = "你是一个专业的内容摘要助手。下面是同一篇网页按顺序分段整理出的要点，"
+            + "请把它们整合成一段连贯、简洁的中文摘要（150字以内）：\n\n";
+
+    private final Ai ai;
+    private final int chunkTokens;
+    private final int parallelism;
+    private final List<CompletableFuture<?>> inFlight = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+
+    PageSummarizer(Ai ai, int chunkTokens, int parallelism) {
+        this.ai = ai;
+        this.chunkTokens = Math.max(500, chunkTokens);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // onProgress(已完成段数, 总段数) 可能在任意线程上回调；只有一段时不会回调
+    CompletableFuture<String> summarize(String text, BiConsumer<Integer, Integer> onProgress, Consumer<String> onDelta) {
+        if (text.length() > MAX_CHARS) text = text.substring(0, MAX_CHARS);
+        return summarize(text, SINGLE_PROMPT, onProgress, onDelta);
+    }
+
+    private CompletableFuture<String> summarize(String text, String prompt, BiConsumer<Integer, Integer> onProgress,
+                                                Consumer<String> onDelta) {
+        List<String> chunks = split(text, chunkTokens);
+        if (chunks.size() <= 1) return track(ai.ask(prompt + text, onDelta));
+        onProgress.accept(0, chunks.size());
+        return mapAll(chunks, onProgress)
+                .thenCompose(parts -> summarize(joinParts(parts), REDUCE_PROMPT, onProgress, onDelta));
+    }
+
+    // 固定数量的“车道”，每条做完一段就去领下一段，同时在路上的请求不超过 parallelism
+    private CompletableFuture<List<String>> mapAll(List<String> chunks, BiConsumer<Integer, Integer> onProgress) {
+        String[] parts = new String[chunks.size()];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        AtomicReference<Throwable> firstError = new AtomicReference<>();
+        CompletableFuture<?>[] lanes = new CompletableFuture<?>[Math.min(parallelism, chunks.size())];
+        for (int i = 0; i < lanes.length; i++) lanes[i] = lane(chunks, parts, next, done, firstError, onProgress);
+        return CompletableFuture.allOf(lanes).thenApply(v -> {
+            List<String> ok = new ArrayList<>();
+            for (String p : parts) if (p != null) ok.add(p);
+            // 个别段失败就少一段要点，全失败才算失败
+            if (ok.isEmpty()) throw new CompletionException(firstError.get());
+            return ok;
+        });
+    }
+
+    private CompletableFuture<Void> lane(List<String> chunks, String[] parts, AtomicInteger next, AtomicInteger done,
+                                         AtomicReference<Throwable> firstError, BiConsumer<Integer, Integer> onProgress) {
+        int i = next.getAndIncrement();
+        if (i >= chunks.size()) return CompletableFuture.completedFuture(null);
+        if (cancelled) return CompletableFuture.failedFuture(new CancellationException());
+        return track(ai.ask(MAP_PROMPT + chunks.get(i), delta -> { }))
+                .handle((part, ex) -> {
+                    if (ex != null) firstError.compareAndSet(null, ex);
+                    else parts[i] = part.trim();
+                    onProgress.accept(done.incrementAndGet(), chunks.size());
+                    return null;
+                })
+                .thenCompose(v -> lane(chunks, parts, next, done, firstError, onProgress));
+    }
+
+    void cancel() {
+        cancelled = true;
+        for (CompletableFuture<?> f : inFlight) f.cancel(true);
+    }
+
+    private <T> CompletableFuture<T> track(CompletableFuture<T> f) {
+        inFlight.add(f);
+        f.whenComplete((v, ex) -> inFlight.remove(f));
+        if (cancelled) f.cancel(true);
+        return f;
+    }
+
+    private static String joinParts(List<String> parts) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < parts.size(); i++) {
+            sb.append("第 ").append(i + 1).append(" 部分：").append(parts.get(i)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // 粗略估算 token：汉字和全角符号大约一字一个，其他字符大约四个一个
+    static int estimateTokens(CharSequence s) {
+        int wide = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c >= 0x2E80 && c <= 0x9FFF) || (c >= 0xF900 && c <= 0xFAFF) || (c >= 0xFF00 && c <= 0xFFEF)) wide++;
+        }
+        return wide + (s.length() - wide + 3) / 4;
+    }
+
+    // 优先在段落之间切，段落太长再按句子切，句子还太长就硬切
+    static List<String> split(String text, int budget) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+        for (String piece : pieces(text, budget)) {
+            int tokens = estimateTokens(piece);
+            if (currentTokens + tokens > budget && current.length() > 0) {
+                chunks.add(current.toString());
+                current.setLength(0);
+                currentTokens = 0;
+            }
+            current.append(piece).append('\n');
+            currentTokens += tokens;
+        }
+        if (current.length() > 0) chunks.add(current.toString());
+        return chunks;
+    }
+
+    private static List<String> pieces(String text, int budget) {
+        List<String> out = new ArrayList<>();
+        for (String paragraph : text.split("\n")) {
+            if (paragraph.isBlank()) continue;
+            if (estimateTokens(paragraph) <= budget) {
+                out.add(paragraph);
+                continue;
+            }
+            for (String sentence : paragraph.split("(?<=[。！？.!?])")) {
+                if (estimateTokens(sentence) <= budget) {
+                    out.add(sentence);
+                    continue;
+                }
+                // 一个 token 至少一个字符，按预算的字符数切一定不会超
+                for (int i = 0; i < sentence.length(); i += budget) {
+                    out.add(sentence.substring(i, Math.min(sentence.length(), i + budget)));
+                }
+            }
+        }
+        return out;
+    }
+}
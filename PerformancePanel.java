@@ -0,0 +1,246 @@
+import javafx.animation.AnimationTimer;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.scene.web.WebEngine;
+import javafx.stage.Stage;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+// 每个标签页的性能面板（Ctrl+F12）：页面自己的 Navigation/Resource Timing 由 executeScript 取回，
+// 再加上 Lantern 这边量到的从发起加载到 SUCCEEDED 的时间、加载期间 FX 线程被卡住多久、拦截数和内存
+class PerformancePanel {
+    private static final String TIMING_SCRIPT = """
+            (() => {
+                const p = window.performance;
+                if (!p) return null;
+                const t = p.timing || {};
+                const base = t.navigationStart || 0;
+                const res = p.getEntriesByType ? p.getEntriesByType('resource') : [];
+                const span = (a, b) => (a > 0 && b > 0) ? Math.round(b - a) : -1;
+                return JSON.stringify({
+                    dns: span(t.domainLookupStart, t.domainLookupEnd),
+                    connect: span(t.connectStart, t.connectEnd),
+                    ttfb: span(t.requestStart, t.responseStart),
+                    response: span(t.responseStart, t.responseEnd),
+                    domReady: span(base, t.domContentLoadedEventEnd),
+                    load: span(base, t.loadEventEnd),
+                    heapUsed: p.memory ? p.memory.usedJSHeapSize : -1,
+                    heapTotal: p.memory ? p.memory.totalJSHeapSize : -1,
+                    resources: res.map(r => [r.name, r.initiatorType || '', Math.round(r.duration),
+                                             r.transferSize || r.encodedBodySize || 0])
+                });
+            })()
+            """;
+
+    private record Resource(String url, String type, long millis, long bytes) {
+    }
+
+    // 一次加载的时间和 FX 线程卡顿：加载期间跑一个 AnimationTimer，相邻两帧隔得太久说明 FX 线程被占住了
+    static final class LoadMetrics {
+        private static final long STALL_MILLIS = 50;
+        private static final long FRAME_MILLIS = 17;
+
+        private final AnimationTimer timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (lastPulse > 0) {
+                    long gap = (now - lastPulse) / 1_000_000;
+                    if (gap > STALL_MILLIS) {
+                        stalls++;
+                        blockedMillis += gap - FRAME_MILLIS;
+                        longestStall = Math.max(longestStall, gap);
+                    }
+                }
+                lastPulse = now;
+            }
+        };
+        // 以下字段只在 FX 线程上访问
+        private boolean running;
+        private long started;
+        private long lastPulse;
+        String url;
+        long loadMillis = -1;
+        boolean failed;
+        int stalls;
+        long blockedMillis;
+        long longestStall;
+
+        void start(String url) {
+            this.url = url;
+            started = System.nanoTime();
+            lastPulse = 0;
+            loadMillis = -1;
+            failed = false;
+            stalls = 0;
+            blockedMillis = 0;
+            longestStall = 0;
+            running = true;
+            timer.start();
+        }
+
+        boolean running() {
+            return running;
+        }
+
+        void finish(boolean ok) {
+            if (!running) return;
+            running = false;
+            timer.stop();
+            loadMillis = (System.nanoTime() - started) / 1_000_000;
+            failed = !ok;
+        }
+
+        // 标签页关掉或者休眠时别让计时器一直跑
+        void stop() {
+            running = false;
+            timer.stop();
+        }
+    }
+
+    private final String title;
+    private final Supplier<WebEngine> engine;
+    private final LoadMetrics metrics;
+    private final IntSupplier blocked;
+    private final Label summary = new Label();
+    private final TableView<Resource> table = new TableView<>();
+
+    PerformancePanel(String title, Supplier<WebEngine> engine, LoadMetrics metrics, IntSupplier blocked) {
+        this.title = title;
+        this.engine = engine;
+        this.metrics = metrics;
+        this.blocked = blocked;
+    }
+
+    void show() {
+        Stage s = new Stage();
+        s.setTitle("性能 - " + title);
+        summary.setWrapText(true);
+        summary.setStyle("-fx-font-family: monospace;");
+
+        TableColumn<Resource, String> url = new TableColumn<>("资源");
+        url.setCellValueFactory(c -> new ReadOnlyStringWrapper(c.getValue().url()));
+        url.setPrefWidth(420);
+        TableColumn<Resource, String> type = new TableColumn<>("类型");
+        type.setCellValueFactory(c -> new ReadOnlyStringWrapper(c.getValue().type()));
+        TableColumn<Resource, Long> millis = new TableColumn<>("耗时 ms");
+        millis.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().millis()));
+        TableColumn<Resource, Long> bytes = new TableColumn<>("大小 KB");
+        bytes.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().bytes() / 1024));
+        table.getColumns().add(url);
+        table.getColumns().add(type);
+        table.getColumns().add(millis);
+        table.getColumns().add(bytes);
+        table.setPlaceholder(new Label("页面没有提供 Resource Timing 数据"));
+
+        Button refresh = new Button("🔄 重新采集");
+        refresh.setOnAction(e -> collect());
+        VBox vbox = new VBox(8, refresh, summary, table);
+        VBox.setVgrow(table, Priority.ALWAYS);
+        vbox.setPadding(new Insets(10));
+        s.setScene(new Scene(vbox, 760, 560));
+        collect();
+        s.show();
+    }
+
+    private void collect() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("网址           ").append(metrics.url == null ? "-" : metrics.url).append('\n');
+        if (metrics.running()) sb.append("加载耗时       还在加载\n");
+        else if (metrics.loadMillis >= 0) sb.append(String.format("加载耗时       %d ms%s%n", metrics.loadMillis, metrics.failed ? "（失败）" : ""));
+        sb.append(String.format("FX 线程卡顿    %d 次，共 %d ms，最长 %d ms%n",
+                metrics.stalls, metrics.blockedMillis, metrics.longestStall));
+        sb.append("本站已拦截请求 ").append(blocked.getAsInt()).append('\n');
+
+        List<Resource> resources = new ArrayList<>();
+        try {
+            Object json = engine.get().executeScript(TIMING_SCRIPT);
+            if (json instanceof String str) parse(str, sb, resources);
+            else sb.append("页面没有 performance 对象\n");
+        } catch (RuntimeException | IOException e) {
+            sb.append("读取页面计时失败: ").append(e.getMessage()).append('\n');
+        }
+
+        long totalBytes = 0;
+        Map<String, Integer> byType = new TreeMap<>();
+        for (Resource r : resources) {
+            totalBytes += r.bytes();
+            byType.merge(r.type().isEmpty() ? "other" : r.type(), 1, Integer::sum);
+        }
+        sb.append(String.format("资源           %d 个，%.1f KB（按类型 %s）%n", resources.size(), totalBytes / 1024.0, byType));
+        Runtime rt = Runtime.getRuntime();
+        sb.append(String.format("Java 堆        已用 %.0f MB / 已分配 %.0f MB",
+                (rt.totalMemory() - rt.freeMemory()) / 1e6, rt.totalMemory() / 1e6));
+        summary.setText(sb.toString());
+        // 最慢的排在最前面
+        resources.sort(Comparator.comparingLong(Resource::millis).reversed());
+        table.getItems().setAll(resources);
+    }
+
+    private static void parse(String json, StringBuilder sb, List<Resource> resources) throws IOException {
+        JsonReader r = new JsonReader(new StringReader(json), Math.max(16, json.length()));
+        long heapUsed = -1, heapTotal = -1;
+        Map<String, Long> spans = new TreeMap<>();
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (r.peek() == JsonReader.Token.NULL) {
+                r.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "heapUsed" -> heapUsed = r.nextLong();
+                case "heapTotal" -> heapTotal = r.nextLong();
+                case "resources" -> {
+                    r.beginArray();
+                    while (r.hasNext()) {
+                        r.beginArray();
+                        String url = r.nextString();
+                        String type = r.nextString();
+                        long millis = r.peek() == JsonReader.Token.NULL ? skipNull(r) : r.nextLong();
+                        long bytes = r.peek() == JsonReader.Token.NULL ? skipNull(r) : r.nextLong();
+                        r.endArray();
+                        resources.add(new Resource(url, type, millis, bytes));
+                    }
+                    r.endArray();
+                }
+                default -> {
+                    if (r.peek() == JsonReader.Token.NUMBER) spans.put(name, r.nextLong());
+                    else r.skipValue();
+                }
+            }
+        }
+        r.endObject();
+        sb.append(String.format("DNS / 连接     %s / %s%n", ms(spans.get("dns")), ms(spans.get("connect"))));
+        sb.append(String.format("首字节 / 下载  %s / %s%n", ms(spans.get("ttfb")), ms(spans.get("response"))));
+        sb.append(String.format("DOM 就绪 / load %s / %s%n", ms(spans.get("domReady")), ms(spans.get("load"))));
+        // WebKit 一般不提供 performance.memory
+        sb.append(heapUsed >= 0
+                ? String.format("JS 堆          已用 %.1f MB / 已分配 %.1f MB%n", heapUsed / 1e6, heapTotal / 1e6)
+                : "JS 堆          页面没有提供\n");
+    }
+
+    private static long skipNull(JsonReader r) throws IOException {
+        r.skipValue();
+        return -1;
+    }
+
+    private static String ms(Long v) {
+        return v == null || v < 0 ? "-" : v + " ms";
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// 后台写盘：调用方交一份数据快照，同一个文件在短时间内的多次保存合并成一次，
+// 在唯一的 lantern-io 线程上写到临时文件、刷盘后原子改名，写到一半崩溃也不会弄坏原文件
+class PersistenceService {
+    interface Content {
+        // 往 w 里写完整的文件内容，不要关闭 w
+        void writeTo(Writer w) throws IOException;
+    }
+
+    private final long coalesceMillis;
+    private final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lantern-io");
+        t.setDaemon(true);
+        return t;
+    });
+    // 每个文件只留最新的一份待写内容
+    private final Map<Path, Content> pending = new ConcurrentHashMap<>();
+
+    PersistenceService(long coalesceMillis) {
+        this.coalesceMillis = coalesceMillis;
+    }
+
+    // 其他需要写盘的组件（比如历史日志）也跑在这个线程上，磁盘访问都在一处排队
+    ScheduledExecutorService executor() {
+        return io;
+    }
+
+    void save(Path file, Content content) {
+        if (pending.put(file, content) == null) {
+            io.schedule(() -> writePending(file), coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void writePending(Path file) {
+        Content content = pending.remove(file);
+        if (content == null) return;
+        try {
+            writeAtomically(file, content);
+        } catch (IOException e) {
+            System.err.println("保存 " + file.getFileName() + " 失败: " + e.getMessage());
+        }
+    }
+
+    static void writeAtomically(Path file, Content content) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer w = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            content.writeTo(w);
+            w.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // 不等合并的延迟，把所有待写的内容马上写完；等待排在前面的任务（比如历史日志的写入）一起完成
+    void flush() {
+        try {
+            io.submit(() -> {
+                for (Path file : pending.keySet()) writePending(file);
+            }).get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("保存数据失败: " + e.getMessage());
+        }
+    }
+
+    // 退出时调用：写完剩下的内容再停掉线程
+    void close() {
+        flush();
+        io.shutdown();
+        try {
+            io.awaitTermination(3, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
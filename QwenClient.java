@@ -0,0 +1,217 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// 通义千问的流式调用：所有请求共用一个 HttpClient，连接和 TLS 会话可以复用；
+// 打开 DashScope 的 SSE 增量输出，每收到一段文字就交给 onDelta，不用等整个回答生成完
+class QwenClient {
+    static final String DEFAULT_ENDPOINT = "https://dashscope.aliyuncs.com/api/v1/services/aigc/text-generation/generation";
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    // 读事件流是阻塞的，放在虚拟线程上，不占公共线程池
+    private final ExecutorService readers = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("lantern-ai-", 0).factory());
+    private final String endpoint;
+    private final String model;
+
+    QwenClient(String endpoint, String model) {
+        this.endpoint = endpoint;
+        this.model = model;
+    }
+
+    String model() {
+        return model;
+    }
+
+    // 返回的 future 以完整的回答结束；被 cancel 时会断开连接。出错时以 IOException 结束，消息可以直接给用户看
+    CompletableFuture<String> stream(String apiKey, String prompt, Consumer<String> onDelta) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint))
+                .timeout(Duration.ofSeconds(120))
+                .header("Authorization", "Bearer " + apiKey)
+                .header("Content-Type", "application/json; charset=utf-8")
+                .header("Accept", "text/event-stream")
+                .header("X-DashScope-SSE", "enable")
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody(prompt), StandardCharsets.UTF_8))
+                .build();
+        CompletableFuture<String> result = new CompletableFuture<>();
+        AtomicReference<InputStream> body = new AtomicReference<>();
+        CompletableFuture<HttpResponse<InputStream>> send = http.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        result.whenComplete((v, ex) -> {
+            if (!result.isCancelled()) return;
+            send.cancel(true);
+            closeQuietly(body.get());
+        });
+        send.whenCompleteAsync((response, ex) -> {
+            if (ex != null) {
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                result.completeExceptionally(new IOException("💥 哎呀，网络出问题了: "
+                        + (cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName()), cause));
+                return;
+            }
+            body.set(response.body());
+            if (result.isDone()) {
+                closeQuietly(response.body());
+                return;
+            }
+            try {
+                result.complete(readEvents(response, onDelta, result));
+            } catch (IOException e) {
+                // 用户取消时流被关掉，读的一方会报错，这种情况不算失败
+                if (!result.isDone()) result.completeExceptionally(e);
+            }
+        }, readers);
+        return result;
+    }
+
+    private String readEvents(HttpResponse<InputStream> response, Consumer<String> onDelta,
+                              CompletableFuture<String> result) throws IOException {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+            if (response.statusCode() / 100 != 2) {
+                StringBuilder sb = new StringBuilder();
+                String line;
+                while ((line = r.readLine()) != null) sb.append(line).append('\n');
+                throw new IOException("❌ 服务器好像不太开心 (" + response.statusCode() + "):\n" + sb);
+            }
+            StringBuilder answer = new StringBuilder();
+            String line;
+            while (!result.isDone() && (line = r.readLine()) != null) {
+                // SSE 里只关心 data: 行，id:/event: 和空行跳过
+                if (!line.startsWith("data:")) continue;
+                Event event = parseEvent(line.substring(5).trim());
+                if (event.error != null) throw new IOException("❌ 服务器好像不太开心 (" + event.code + "):\n" + event.error);
+                if (!event.text.isEmpty()) {
+                    answer.append(event.text);
+                    onDelta.accept(event.text);
+                }
+                if ("stop".equals(event.finish)) break;
+            }
+            if (answer.length() == 0 && !result.isDone()) {
+                throw new IOException("✅ 我收到了服务器的回复，但里面的内容有点乱，没能完全看懂");
+            }
+            return answer.toString();
+        }
+    }
+
+    private String requestBody(String prompt) {
+        StringWriter sw = new StringWriter(prompt.length() + 200);
+        try {
+            new JsonWriter(sw).beginObject()
+                    .name("model").value(model)
+                    .name("input").beginObject()
+                    .name("messages").beginArray()
+                    .beginObject().name("role").value("user").name("content").value(prompt).endObject()
+                    .endArray()
+                    .endObject()
+                    .name("parameters").beginObject()
+                    .name("result_format").value("message")
+                    .name("incremental_output").value(true)
+                    .endObject()
+                    .endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sw.toString();
+    }
+
+    // 一条事件里只取正文片段、结束原因和错误信息
+    static final class Event {
+        String text = "";
+        String finish;
+        String code;
+        String error;
+    }
+
+    static Event parseEvent(String json) throws IOException {
+        Event event = new Event();
+        JsonReader r = new JsonReader(new StringReader(json), Math.max(16, json.length()));
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if (r.peek() == JsonReader.Token.STRING) {
+                String value = r.nextString();
+                // 出错时顶层有 code 和 message
+                if ("code".equals(name)) event.code = value;
+                else if ("message".equals(name)) event.error = value;
+            } else if ("output".equals(name)) {
+                readOutput(r, event);
+            } else {
+                r.skipValue();
+            }
+        }
+        r.endObject();
+        return event;
+    }
+
+    // output.choices[].message.content 和 finish_reason；旧的 text 格式是 output.text
+    private static void readOutput(JsonReader r, Event event) throws IOException {
+        if (r.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            r.skipValue();
+            return;
+        }
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "text" -> event.text += stringOrSkip(r);
+                case "finish_reason" -> event.finish = stringOrSkip(r);
+                case "choices" -> {
+                    r.beginArray();
+                    while (r.hasNext()) {
+                        r.beginObject();
+                        while (r.hasNext()) {
+                            switch (r.nextName()) {
+                                case "finish_reason" -> event.finish = stringOrSkip(r);
+                                case "message" -> {
+                                    r.beginObject();
+                                    while (r.hasNext()) {
+                                        if ("content".equals(r.nextName())) event.text += stringOrSkip(r);
+                                        else r.skipValue();
+                                    }
+                                    r.endObject();
+                                }
+                                default -> r.skipValue();
+                            }
+                        }
+                        r.endObject();
+                    }
+                    r.endArray();
+                }
+                default -> r.skipValue();
+            }
+        }
+        r.endObject();
+    }
+
+    private static String stringOrSkip(JsonReader r) throws IOException {
+        if (r.peek() == JsonReader.Token.STRING) return r.nextString();
+        r.skipValue();
+        return "";
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in == null) return;
+        try {
+            in.close();
+        } catch (IOException e) {
+            /* ignore */
+        }
+    }
+}
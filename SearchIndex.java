@@ -0,0 +1,341 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+// 地址栏联想用的内存索引：每个网址一条记录，标题和网址拆成词放进有序词表，按前缀查；
+// 结果按 frecency（访问次数 × 时间衰减，书签加分）排序。新的访问只更新对应记录，不重建索引。
+// 一两个字的前缀能命中几十万条，不去翻词表，而是看每个短前缀事先按 rank 排好的前 SHORT_TOP 条
+class SearchIndex {
+    // 三个字以上的前缀命中太多时，只按 rank 取这么多条候选
+    private static final int MAX_CANDIDATES = 2000;
+    private static final int SHORT_PREFIX = 2;
+    private static final int SHORT_TOP = 128;
+    private static final double HALF_LIFE_DAYS = 14;
+    private static final double HALF_LIFE_MILLIS = HALF_LIFE_DAYS * 86_400_000.0;
+    private static final int MAX_CJK_SUFFIX = 8;
+    // 几乎每个网址都有的词，建倒排只会得到巨大而没用的列表
+    private static final Set<String> STOP_WORDS = Set.of("http", "https", "www", "com", "html", "htm");
+
+    static final class Doc {
+        final int id;
+        final String url;
+        String title;
+        int visits;
+        long lastVisit;
+        boolean bookmarked;
+        String lowerText;
+        final String bareUrl;
+        // log2(不算书签加分的 frecency) 加上 now / 半衰期：和查询时刻无关，排出来的顺序和 frecency 一样。
+        // 只会变大，短前缀的排行榜靠这一点才不用在别的记录变化时重排
+        double rank;
+
+        Doc(int id, String url, String title) {
+            this.id = id;
+            this.url = url;
+            this.title = title;
+            this.lowerText = lowerText(title, url);
+            this.bareUrl = stripScheme(url.toLowerCase(Locale.ROOT));
+        }
+
+        private static String lowerText(String title, String url) {
+            return (title + " " + url).toLowerCase(Locale.ROOT);
+        }
+
+        private void updateRank() {
+            rank = lastVisit / HALF_LIFE_MILLIS + Math.log(1 + Math.log1p(visits)) / Math.log(2);
+        }
+    }
+
+    private final List<Doc> docs = new ArrayList<>();
+    private final Map<String, Doc> byUrl = new HashMap<>();
+    // 同一份倒排表挂在两个表上：更新走 HashMap，按前缀查走有序的 TreeMap（只有新词才插入）
+    private final Map<String, IntList> postingsByToken = new HashMap<>();
+    private final TreeMap<String, IntList> dictionary = new TreeMap<>();
+    // 短前缀 → rank 最高的记录。停用词也算在内；书签的加分是加法，和 rank 的顺序不一致，单独排一份；
+    // 网址本身的前缀（从头打网址时加分）也单独排一份
+    private final Map<String, TopK> shortTop = new HashMap<>();
+    private final Map<String, TopK> shortTopBookmarked = new HashMap<>();
+    private final Map<String, TopK> shortTopByUrl = new HashMap<>();
+    // 所有词都是停用词（"http"、"www"）时的候选
+    private final TopK overallTop = new TopK();
+    private final TopK overallTopBookmarked = new TopK();
+
+    int size() {
+        return docs.size();
+    }
+
+    void addVisit(String title, String url, long time) {
+        Doc doc = docFor(url, title);
+        doc.visits++;
+        if (time >= doc.lastVisit) {
+            doc.lastVisit = time;
+            if (title != null && !title.isEmpty() && !title.equals(doc.title)) {
+                // 只补新标题里原来没有的词，倒排表里不会重复出现同一条记录
+                Set<String> known = new HashSet<>(Arrays.asList(tokenize(doc.lowerText)));
+                doc.title = title;
+                doc.lowerText = Doc.lowerText(title, doc.url);
+                for (String token : tokenize(title.toLowerCase(Locale.ROOT))) {
+                    if (known.add(token) && !STOP_WORDS.contains(token)) addToken(token, doc.id);
+                }
+            }
+        }
+        doc.updateRank();
+        rerank(doc);
+    }
+
+    void addBookmark(String title, String url) {
+        Doc doc = docFor(url, title);
+        if (doc.bookmarked) return;
+        doc.bookmarked = true;
+        rerank(doc);
+    }
+
+    private Doc docFor(String url, String title) {
+        Doc doc = byUrl.get(url);
+        if (doc == null) {
+            doc = new Doc(docs.size(), url, title == null ? "" : title);
+            docs.add(doc);
+            byUrl.put(url, doc);
+            indexText(doc, doc.title);
+            indexText(doc, url);
+            doc.updateRank();
+        }
+        return doc;
+    }
+
+    // rank 变大或者成了书签以后，放进它所有短前缀的排行榜
+    private void rerank(Doc doc) {
+        Set<String> prefixes = new HashSet<>();
+        for (String token : tokenize(doc.lowerText)) {
+            for (int n = 1; n <= Math.min(SHORT_PREFIX, token.length()); n++) prefixes.add(token.substring(0, n));
+        }
+        for (String prefix : prefixes) {
+            shortTop.computeIfAbsent(prefix, k -> new TopK()).offer(doc);
+            if (doc.bookmarked) shortTopBookmarked.computeIfAbsent(prefix, k -> new TopK()).offer(doc);
+        }
+        for (int n = 1; n <= Math.min(SHORT_PREFIX, doc.bareUrl.length()); n++) {
+            shortTopByUrl.computeIfAbsent(doc.bareUrl.substring(0, n), k -> new TopK()).offer(doc);
+        }
+        overallTop.offer(doc);
+        if (doc.bookmarked) overallTopBookmarked.offer(doc);
+    }
+
+    List<Doc> query(String text, int limit, long now) {
+        String[] terms = tokenize(text.trim().toLowerCase(Locale.ROOT));
+        if (terms.length == 0) return List.of();
+        String bareQuery = stripScheme(text.trim().toLowerCase(Locale.ROOT));
+
+        // 用最长的词去查前缀，命中的候选再逐个检查其余的词。停用词不进词表，是停用词前缀的词（"htt"、"ww"）
+        // 按前缀查会漏掉结果，不能拿来查词表；短词和这种词都改看排行榜
+        String lead = null;
+        String shortest = null;
+        for (String t : terms) {
+            if (t.length() > SHORT_PREFIX && !stopWordPrefix(t) && (lead == null || t.length() > lead.length())) lead = t;
+            if (t.length() <= SHORT_PREFIX && (shortest == null || t.length() > shortest.length())) shortest = t;
+        }
+        int[] seen;
+        if (lead != null) {
+            seen = topPostings(dictionary.subMap(lead, true, lead + Character.MAX_VALUE, false));
+        } else if (shortest != null) {
+            seen = concat(shortTop.get(shortest), shortTopBookmarked.get(shortest),
+                    bareQuery.length() <= SHORT_PREFIX ? shortTopByUrl.get(bareQuery) : null);
+        } else {
+            seen = concat(overallTop, overallTopBookmarked, null);
+        }
+        Arrays.sort(seen);
+
+        PriorityQueue<Object[]> top = new PriorityQueue<>(limit + 1, (a, b) -> Double.compare((double) a[1], (double) b[1]));
+        int previous = -1;
+        for (int id : seen) {
+            if (id == previous) continue;
+            previous = id;
+            Doc doc = docs.get(id);
+            if (!matchesAll(doc, terms)) continue;
+            double score = frecency(doc, now);
+            if (doc.bareUrl.startsWith(bareQuery)) score *= 4;
+            top.add(new Object[]{doc, score});
+            if (top.size() > limit) top.poll();
+        }
+        Doc[] result = new Doc[top.size()];
+        for (int i = result.length - 1; i >= 0; i--) result[i] = (Doc) top.poll()[0];
+        return Arrays.asList(result);
+    }
+
+    // 前缀命中的所有记录；超过 MAX_CANDIDATES 条时按 rank 只留最高的那些（小顶堆），可能有重复
+    private int[] topPostings(NavigableMap<String, IntList> range) {
+        int[] heap = new int[MAX_CANDIDATES];
+        int n = 0;
+        for (IntList postings : range.values()) {
+            for (int i = 0; i < postings.size; i++) {
+                int id = postings.values[i];
+                if (n < MAX_CANDIDATES) {
+                    heap[n] = id;
+                    siftUp(heap, n++);
+                } else if (docs.get(id).rank > docs.get(heap[0]).rank) {
+                    heap[0] = id;
+                    siftDown(heap, n, 0);
+                }
+            }
+        }
+        return Arrays.copyOf(heap, n);
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (docs.get(heap[parent]).rank <= docs.get(heap[i]).rank) return;
+            int t = heap[i];
+            heap[i] = heap[parent];
+            heap[parent] = t;
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int n, int i) {
+        while (true) {
+            int smallest = i, left = 2 * i + 1, right = left + 1;
+            if (left < n && docs.get(heap[left]).rank < docs.get(heap[smallest]).rank) smallest = left;
+            if (right < n && docs.get(heap[right]).rank < docs.get(heap[smallest]).rank) smallest = right;
+            if (smallest == i) return;
+            int t = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = t;
+            i = smallest;
+        }
+    }
+
+    private static int[] concat(TopK a, TopK b, TopK c) {
+        int n = (a == null ? 0 : a.size) + (b == null ? 0 : b.size) + (c == null ? 0 : c.size);
+        int[] out = new int[n];
+        int at = 0;
+        for (TopK t : new TopK[]{a, b, c}) {
+            if (t == null) continue;
+            System.arraycopy(t.ids, 0, out, at, t.size);
+            at += t.size;
+        }
+        return out;
+    }
+
+    private static boolean stopWordPrefix(String term) {
+        for (String w : STOP_WORDS) {
+            if (w.startsWith(term)) return true;
+        }
+        return false;
+    }
+
+    private static boolean matchesAll(Doc doc, String[] terms) {
+        for (String t : terms) {
+            if (!doc.lowerText.contains(t)) return false;
+        }
+        return true;
+    }
+
+    static double frecency(Doc doc, long now) {
+        double ageDays = Math.max(0, now - doc.lastVisit) / 86_400_000.0;
+        double score = (1 + Math.log1p(doc.visits)) * Math.pow(0.5, ageDays / HALF_LIFE_DAYS);
+        return doc.bookmarked ? score + 2 : score;
+    }
+
+    private void indexText(Doc doc, String text) {
+        for (String token : tokenize(text.toLowerCase(Locale.ROOT))) {
+            if (!STOP_WORDS.contains(token)) addToken(token, doc.id);
+        }
+    }
+
+    private void addToken(String token, int id) {
+        IntList postings = postingsByToken.get(token);
+        if (postings == null) {
+            postings = new IntList();
+            postingsByToken.put(token, postings);
+            dictionary.put(token, postings);
+        }
+        if (postings.size == 0 || postings.values[postings.size - 1] != id) postings.add(id);
+    }
+
+    // 按非字母数字切词；中文没有空格，连续的汉字按每个字开头的短后缀建词，这样中间的字也能搜到
+    static String[] tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            boolean cjk = isCjk(c);
+            while (i < text.length() && Character.isLetterOrDigit(text.charAt(i)) && isCjk(text.charAt(i)) == cjk) i++;
+            if (cjk) {
+                for (int j = start; j < i; j++) out.add(text.substring(j, Math.min(i, j + MAX_CJK_SUFFIX)));
+            } else {
+                out.add(text.substring(start, i));
+            }
+        }
+        return out.toArray(new String[0]);
+    }
+
+    // 只看常用的汉字区段，比 Character.UnicodeScript.of 的二分查找快得多
+    private static boolean isCjk(char c) {
+        return (c >= 0x4E00 && c <= 0x9FFF) || (c >= 0x3400 && c <= 0x4DBF) || (c >= 0xF900 && c <= 0xFAFF);
+    }
+
+    private static String stripScheme(String url) {
+        int colon = url.indexOf("://");
+        String s = colon > 0 && colon < 12 ? url.substring(colon + 3) : url;
+        return s.startsWith("www.") ? s.substring(4) : s;
+    }
+
+    // 按 rank 从高到低的前 SHORT_TOP 条。rank 只增不减，榜外的记录不可能比榜上最低的高，
+    // 所以只要在记录的 rank 变化时 offer 一次，榜单就一直是对的
+    private static final class TopK {
+        int[] ids = new int[4];
+        double[] ranks = new double[4];
+        int size;
+
+        void offer(Doc doc) {
+            if (size == SHORT_TOP && doc.rank <= ranks[size - 1]) return;
+            int at = -1;
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == doc.id) {
+                    at = i;
+                    break;
+                }
+            }
+            if (at >= 0) {
+                System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+                System.arraycopy(ranks, at + 1, ranks, at, size - at - 1);
+                size--;
+            } else if (size == SHORT_TOP) {
+                size--;
+            } else if (size == ids.length) {
+                ids = Arrays.copyOf(ids, Math.min(SHORT_TOP, size * 2));
+                ranks = Arrays.copyOf(ranks, ids.length);
+            }
+            int pos = 0;
+            while (pos < size && ranks[pos] >= doc.rank) pos++;
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            System.arraycopy(ranks, pos, ranks, pos + 1, size - pos);
+            ids[pos] = doc.id;
+            ranks[pos] = doc.rank;
+            size++;
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[2];
+        int size;
+
+        void add(int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+    }
+}
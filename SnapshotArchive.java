@@ -0,0 +1,220 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 一个离线快照的单文件归档：文件头、各条资源的数据、目录、16 字节的文件尾（目录位置、条数、魔数）。
+// 每条资源单独压缩，打开时只读目录，取哪条才解压哪条；压不小的（图片、woff2 之类）原样存，
+// 读的时候直接从映射的内存里流出去，不复制
+final class SnapshotArchive {
+    private static final int MAGIC = 0x4C534E50; // "LSNP"
+    private static final int VERSION = 1;
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+    // 目录里一条的最小长度：两个空字符串的长度、压缩方式、偏移、压缩后和解压后的大小
+    private static final int MIN_ENTRY_BYTES = 2 + 2 + 1 + 8 + 4 + 4;
+
+    record Resource(String name, String type, byte[] data) {
+    }
+
+    private record Entry(String type, byte method, long offset, int stored, int size) {
+    }
+
+    private final MappedByteBuffer map;
+    private final Map<String, Entry> entries;
+
+    private SnapshotArchive(MappedByteBuffer map, Map<String, Entry> entries) {
+        this.map = map;
+        this.entries = entries;
+    }
+
+    // 先写临时文件再改名，写到一半崩溃不会留下坏归档；返回文件大小
+    static long write(Path file, List<Resource> resources) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        List<Entry> written = new ArrayList<>(resources.size());
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] buffer = new byte[64 * 1024];
+        long offset = 8;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Resource r : resources) {
+                byte[] packed = deflate(deflater, r.data(), buffer);
+                // 省不到一成就不压，读的时候省掉解压
+                boolean worth = packed.length < r.data().length * 0.9;
+                byte[] body = worth ? packed : r.data();
+                out.write(body);
+                written.add(new Entry(r.type(), worth ? DEFLATED : STORED, offset, body.length, r.data().length));
+                offset += body.length;
+            }
+            long toc = offset;
+            for (int i = 0; i < resources.size(); i++) {
+                Entry e = written.get(i);
+                writeString(out, resources.get(i).name());
+                writeString(out, e.type());
+                out.writeByte(e.method());
+                out.writeLong(e.offset());
+                out.writeInt(e.stored());
+                out.writeInt(e.size());
+            }
+            out.writeLong(toc);
+            out.writeInt(resources.size());
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+        }
+        long size = Files.size(tmp);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    // 整个文件映射进内存，只解析目录。文件坏成什么样都只抛 IOException
+    static SnapshotArchive open(Path file) throws IOException {
+        try {
+            MappedByteBuffer map;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // 映射和下面的偏移都是 int，2 GB 以上的归档不是我们写出来的
+                if (channel.size() > Integer.MAX_VALUE) throw new IOException("快照文件太大");
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            int size = map.capacity();
+            if (size < 24 || map.getInt(0) != MAGIC || map.getInt(size - 4) != MAGIC) throw new IOException("不是快照文件");
+            if (map.getInt(4) != VERSION) throw new IOException("快照文件版本不对");
+            long toc = map.getLong(size - 16);
+            int count = map.getInt(size - 8);
+            // 每条目录至少 21 字节，条数不可能比目录区放得下的还多
+            if (toc < 8 || toc > size - 16 || count < 0 || count > (size - 16 - toc) / MIN_ENTRY_BYTES) {
+                throw new IOException("快照文件已损坏");
+            }
+            ByteBuffer in = map.duplicate().position((int) toc).limit(size - 16);
+            Map<String, Entry> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String name = readString(in);
+                Entry e = new Entry(readString(in), in.get(), in.getLong(), in.getInt(), in.getInt());
+                if (!valid(e, toc)) throw new IOException("快照文件已损坏");
+                entries.put(name, e);
+            }
+            return new SnapshotArchive(map, entries);
+        } catch (RuntimeException e) {
+            throw new IOException("快照文件已损坏", e);
+        }
+    }
+
+    // 长度是负的、压缩方式不认识或者解压后大得不可能，read() 里会抛出非受检异常或者白白分配一大块内存，
+    // 在打开时就拦下。deflate 最多压到约 1/1032
+    private static boolean valid(Entry e, long toc) {
+        if (e.offset() < 8 || e.stored() < 0 || e.size() < 0 || e.offset() + e.stored() > toc) return false;
+        if (e.method() == STORED) return e.size() == e.stored();
+        return e.method() == DEFLATED && e.size() <= (long) e.stored() * 1032 + 64;
+    }
+
+    boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    String type(String name) {
+        Entry e = entries.get(name);
+        return e == null ? null : e.type();
+    }
+
+    // 解压后的大小；没有这条时为 -1
+    long size(String name) {
+        Entry e = entries.get(name);
+        return e == null ? -1 : e.size();
+    }
+
+    InputStream read(String name) throws IOException {
+        Entry e = entries.get(name);
+        if (e == null) return null;
+        ByteBuffer slice = map.slice((int) e.offset(), e.stored());
+        if (e.method() == STORED) return new BufferInputStream(slice);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(slice);
+            byte[] out = new byte[e.size()];
+            int n = 0;
+            while (n < out.length && !inflater.finished()) {
+                int k = inflater.inflate(out, n, out.length - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += k;
+            }
+            // 目录里的大小比实际的小：缓冲区满了数据还没完
+            if (n == out.length && !inflater.finished()) n += inflater.inflate(new byte[1]);
+            if (n != out.length || !inflater.finished()) throw new IOException("快照里的 " + name + " 已损坏");
+            return new ByteArrayInputStream(out);
+        } catch (DataFormatException ex) {
+            throw new IOException("快照里的 " + name + " 已损坏", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] data, byte[] buffer) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[Short.toUnsignedInt(in.getShort())];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // 直接读映射内存的输入流
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,511 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// 离线快照：把渲染好的 DOM 和它用到的图片、样式表存成 ~/.lantern/snapshots 下的一个 .lsnap 归档（见 SnapshotArchive），
+// index.json 记着网址、标题、大小，按最近打开的顺序排。快照通过 lantern-snapshot://<id>/<资源号> 交给 WebView，
+// 0 号是页面本身；读的时候直接从映射进内存的归档里取，不走网络。总大小超了先删最久没打开的
+class SnapshotStore {
+    static final String SCHEME = "lantern-snapshot";
+    private static final int MAX_RESOURCES = 500;
+    private static final int MAX_RESOURCE_BYTES = 16 * 1024 * 1024;
+    // 映射着的归档最多留几个
+    private static final int OPEN_ARCHIVES = 8;
+    private static final int PARALLEL_FETCHES = 6;
+    private static final Pattern CSS_URL = Pattern.compile(
+            "url\\(\\s*(['\"]?)([^'\")]+)\\1\\s*\\)|@import\\s+(['\"])([^'\"]+)\\3");
+
+    // 克隆整个文档，去掉脚本（渲染结果已经在 DOM 里了），图片、样式表、图标换成快照里的资源号，
+    // 链接改成绝对地址，点了照常上网。返回 JSON：{"html": ..., "resources": [原网址, ...]}，第 i 个资源的编号是 i + 1
+    private static final String CAPTURE_SCRIPT = """
+            (() => {
+                const prefix = '%s';
+                const urls = [];
+                const ids = new Map();
+                const abs = v => {
+                    try { return new URL(v, document.baseURI).href; } catch (e) { return null; }
+                };
+                const ref = v => {
+                    const u = v && abs(v.trim());
+                    if (!u || !/^https?:/.test(u)) return null;
+                    if (!ids.has(u)) {
+                        urls.push(u);
+                        ids.set(u, urls.length);
+                    }
+                    return prefix + ids.get(u);
+                };
+                const rewriteCss = text => text.replace(/url\\(\\s*(['"]?)([^'")]+)\\1\\s*\\)/g,
+                        (m, q, u) => u.startsWith('data:') || u.startsWith('#') ? m : 'url("' + (ref(u) || u) + '")');
+                const root = document.documentElement.cloneNode(true);
+                root.querySelectorAll('script, noscript, iframe, frame, object, embed, base').forEach(e => e.remove());
+                root.querySelectorAll('[srcset]').forEach(e => e.removeAttribute('srcset'));
+                for (const [selector, attr] of [['img[src]', 'src'], ['source[src]', 'src'], ['input[type=image][src]', 'src'],
+                        ['video[poster]', 'poster'], ['link[href]', 'href']]) {
+                    for (const el of root.querySelectorAll(selector)) {
+                        if (el.tagName === 'LINK' && !/stylesheet|icon/i.test(el.rel)) {
+                            el.remove();
+                            continue;
+                        }
+                        const r = ref(el.getAttribute(attr));
+                        if (r) el.setAttribute(attr, r);
+                    }
+                }
+                for (const a of root.querySelectorAll('a[href], area[href]')) {
+                    const u = abs(a.getAttribute('href'));
+                    if (u) a.setAttribute('href', u);
+                }
+                for (const el of root.querySelectorAll('[style]')) el.setAttribute('style', rewriteCss(el.getAttribute('style')));
+                for (const el of root.querySelectorAll('style')) el.textContent = rewriteCss(el.textContent);
+                return JSON.stringify({html: '<!DOCTYPE html>\\n' + root.outerHTML, resources: urls});
+            })()
+            """;
+
+    record Info(String id, String url, String title, long saved, long opened, long size) {
+    }
+
+    private final Path dir;
+    private final Path indexFile;
+    private final PersistenceService persistence;
+    private volatile long maxBytes;
+    // 按最近打开的顺序，最前面的最久没打开；只在 synchronized 里访问
+    private final LinkedHashMap<String, Info> index = new LinkedHashMap<>();
+    private final LinkedHashMap<String, SnapshotArchive> archives = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SnapshotArchive> eldest) {
+            return size() > OPEN_ARCHIVES;
+        }
+    };
+    private boolean loaded;
+    private long totalBytes;
+    private int opens;
+    private long lastOpenNanos;
+
+    SnapshotStore(Path dir, long maxBytes, PersistenceService persistence) {
+        this.dir = dir;
+        this.indexFile = dir.resolve("index.json");
+        this.maxBytes = maxBytes;
+        this.persistence = persistence;
+    }
+
+    static boolean isSnapshot(String url) {
+        return url != null && url.startsWith(SCHEME + "://");
+    }
+
+    static String urlOf(String id) {
+        return SCHEME + "://" + id + "/0";
+    }
+
+    static String newId() {
+        return UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+    }
+
+    static String captureScript(String id) {
+        return CAPTURE_SCRIPT.formatted(SCHEME + "://" + id + "/");
+    }
+
+    // 交给 URL.setURLStreamHandlerFactory，WebView 取 lantern-snapshot: 的地址时走这里
+    URLStreamHandler handler() {
+        return new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) {
+                return new Connection(u);
+            }
+        };
+    }
+
+    void reconfigure(long maxBytes) {
+        this.maxBytes = maxBytes;
+        List<String> victims;
+        synchronized (this) {
+            load();
+            victims = evict(null);
+        }
+        persistence.executor().execute(() -> deleteFiles(victims));
+    }
+
+    // 在后台线程上调用：按 captured（CAPTURE_SCRIPT 的结果）取回各个资源，写成归档。
+    // 资源先按普通请求去取，WebView 刚加载过的一般都在网页缓存里，不用再上网
+    Info save(String id, String url, String title, String captured) throws IOException {
+        // 先把索引读进来：load() 会把索引里没有的归档当成残留删掉，不能等新归档写完了才读
+        synchronized (this) {
+            load();
+        }
+        String html = null;
+        List<String> urls = new ArrayList<>();
+        JsonReader r = new JsonReader(new StringReader(captured));
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "html" -> html = r.nextString();
+                case "resources" -> {
+                    r.beginArray();
+                    while (r.hasNext()) urls.add(r.nextString());
+                    r.endArray();
+                }
+                default -> r.skipValue();
+            }
+        }
+        r.endObject();
+        if (html == null) throw new IOException("没有取到页面内容");
+
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < urls.size(); i++) ids.put(urls.get(i), i + 1);
+        List<SnapshotArchive.Resource> resources = new ArrayList<>();
+        resources.add(new SnapshotArchive.Resource("0", "text/html; charset=utf-8", html.getBytes(StandardCharsets.UTF_8)));
+        // 样式表里还会引用字体、背景图和别的样式表，一轮一轮往下取，最多三层
+        int fetched = 0;
+        for (int depth = 0; depth < 3 && fetched < urls.size(); depth++) {
+            int from = fetched;
+            fetched = Math.min(urls.size(), MAX_RESOURCES);
+            Fetched[] batch = fetchAll(urls.subList(from, fetched));
+            for (int i = 0; i < batch.length; i++) {
+                Fetched f = batch[i];
+                if (f == null) continue;
+                String name = String.valueOf(from + i + 1);
+                if (f.type().toLowerCase(Locale.ROOT).startsWith("text/css")) {
+                    String css = rewriteCss(new String(f.data(), charsetOf(f.type())), urls.get(from + i), id, urls, ids);
+                    resources.add(new SnapshotArchive.Resource(name, "text/css; charset=utf-8", css.getBytes(StandardCharsets.UTF_8)));
+                } else {
+                    resources.add(new SnapshotArchive.Resource(name, f.type(), f.data()));
+                }
+            }
+        }
+
+        Files.createDirectories(dir);
+        long size = SnapshotArchive.write(file(id), resources);
+        long now = System.currentTimeMillis();
+        Info info = new Info(id, url, title == null || title.isBlank() ? url : title, now, now, size);
+        List<String> victims;
+        synchronized (this) {
+            load();
+            index.put(id, info);
+            totalBytes += size;
+            victims = evict(id);
+            saveIndex();
+        }
+        deleteFiles(victims);
+        return info;
+    }
+
+    // 新保存的在前面
+    synchronized List<Info> list() {
+        load();
+        List<Info> all = new ArrayList<>(index.values());
+        all.sort(Comparator.comparingLong(Info::saved).reversed());
+        return all;
+    }
+
+    // 这个网址最新的快照；没有时返回 null
+    synchronized Info latestFor(String url) {
+        load();
+        Info latest = null;
+        for (Info info : index.values()) {
+            if (info.url().equals(url) && (latest == null || info.saved() > latest.saved())) latest = info;
+        }
+        return latest;
+    }
+
+    void remove(String id) {
+        synchronized (this) {
+            load();
+            Info old = index.remove(id);
+            if (old == null) return;
+            totalBytes -= old.size();
+            archives.remove(id);
+            saveIndex();
+        }
+        persistence.executor().execute(() -> deleteFiles(List.of(id)));
+    }
+
+    synchronized String statsText() {
+        load();
+        return String.format("%d 个，占用 %.1f MB / 上限 %d MB，打开 %d 次，最近一次映射归档用了 %.2f ms",
+                index.size(), totalBytes / 1e6, maxBytes / (1024 * 1024), opens, lastOpenNanos / 1e6);
+    }
+
+    // 打开页面本身（0 号资源）时算一次打开，挪到最近使用的一端
+    private synchronized SnapshotArchive archive(String id, boolean opening) {
+        load();
+        Info info = index.get(id);
+        if (info == null) return null;
+        if (opening) {
+            index.remove(id);
+            index.put(id, new Info(id, info.url(), info.title(), info.saved(), System.currentTimeMillis(), info.size()));
+            saveIndex();
+        }
+        SnapshotArchive archive = archives.get(id);
+        if (archive != null) return archive;
+        long started = System.nanoTime();
+        try {
+            archive = SnapshotArchive.open(file(id));
+        } catch (IOException e) {
+            System.err.println("打开快照失败: " + e.getMessage());
+            return null;
+        }
+        lastOpenNanos = System.nanoTime() - started;
+        opens++;
+        archives.put(id, archive);
+        return archive;
+    }
+
+    private record Fetched(String type, byte[] data) {
+    }
+
+    private Fetched[] fetchAll(List<String> urls) {
+        Fetched[] out = new Fetched[urls.size()];
+        Semaphore slots = new Semaphore(PARALLEL_FETCHES);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < out.length; i++) {
+                int k = i;
+                pool.execute(() -> {
+                    try {
+                        slots.acquire();
+                        try {
+                            out[k] = fetch(urls.get(k));
+                        } finally {
+                            slots.release();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        }
+        return out;
+    }
+
+    // 取不到的资源不要了，页面上那一块空着
+    private static Fetched fetch(String url) {
+        try {
+            URLConnection c = URI.create(url).toURL().openConnection();
+            c.setConnectTimeout(10_000);
+            c.setReadTimeout(20_000);
+            if (c instanceof HttpURLConnection http && http.getResponseCode() != 200) return null;
+            byte[] data;
+            try (InputStream in = c.getInputStream()) {
+                data = in.readNBytes(MAX_RESOURCE_BYTES + 1);
+            }
+            if (data.length > MAX_RESOURCE_BYTES) return null;
+            String type = c.getContentType();
+            return new Fetched(type == null ? "application/octet-stream" : type, data);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // 样式表里的 url() 和 @import 相对样式表自己的地址，换成快照里的资源号；新出现的网址接在 urls 后面
+    private static String rewriteCss(String css, String base, String id, List<String> urls, Map<String, Integer> ids) {
+        Matcher m = CSS_URL.matcher(css);
+        StringBuilder sb = new StringBuilder(css.length());
+        while (m.find()) {
+            boolean url = m.group(2) != null;
+            String target = (url ? m.group(2) : m.group(4)).trim();
+            String resolved = null;
+            if (!target.startsWith("data:") && !target.startsWith("#")) {
+                try {
+                    URI u = URI.create(base).resolve(target);
+                    if ("http".equals(u.getScheme()) || "https".equals(u.getScheme())) resolved = u.toString();
+                } catch (IllegalArgumentException e) {
+                    // 解析不了的地址原样留着
+                }
+            }
+            Integer n = resolved == null ? null : ids.get(resolved);
+            if (resolved != null && n == null && urls.size() < MAX_RESOURCES) {
+                urls.add(resolved);
+                n = urls.size();
+                ids.put(resolved, n);
+            }
+            String replacement = n == null ? m.group() : url
+                    ? "url(\"" + SCHEME + "://" + id + "/" + n + "\")"
+                    : "@import \"" + SCHEME + "://" + id + "/" + n + "\"";
+            m.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    private static Charset charsetOf(String type) {
+        int i = type.toLowerCase(Locale.ROOT).indexOf("charset=");
+        if (i < 0) return StandardCharsets.UTF_8;
+        try {
+            return Charset.forName(type.substring(i + 8).replace("\"", "").split(";")[0].trim());
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    // 超出预算时从最久没打开的删起，keep 是刚保存的那个，不删；返回要删的文件，由调用方在锁外删
+    private List<String> evict(String keep) {
+        List<String> victims = new ArrayList<>();
+        for (Iterator<Info> it = index.values().iterator(); it.hasNext() && totalBytes > maxBytes; ) {
+            Info info = it.next();
+            if (info.id().equals(keep)) continue;
+            it.remove();
+            totalBytes -= info.size();
+            archives.remove(info.id());
+            victims.add(info.id());
+        }
+        if (!victims.isEmpty()) saveIndex();
+        return victims;
+    }
+
+    // 映射着的文件在 Windows 上删不掉，删不掉的下次启动时当作孤儿清理
+    private void deleteFiles(List<String> ids) {
+        for (String id : ids) {
+            try {
+                Files.deleteIfExists(file(id));
+            } catch (IOException e) {
+                System.err.println("删除快照失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private Path file(String id) {
+        return dir.resolve(id + ".lsnap");
+    }
+
+    private void saveIndex() {
+        List<Info> snapshot = new ArrayList<>(index.values());
+        persistence.save(indexFile, w -> {
+            JsonWriter out = new JsonWriter(w, true);
+            out.beginArray();
+            for (Info info : snapshot) {
+                out.beginObject().name("id").value(info.id()).name("url").value(info.url())
+                        .name("title").value(info.title()).name("saved").value(info.saved())
+                        .name("opened").value(info.opened()).name("size").value(info.size()).endObject();
+            }
+            out.endArray().flush();
+        });
+    }
+
+    // 第一次用到时读索引，顺便删掉索引里没有的归档和没写完的临时文件
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        List<Info> infos = new ArrayList<>();
+        if (Files.exists(indexFile)) {
+            try (Reader in = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+                JsonReader r = new JsonReader(in);
+                r.beginArray();
+                while (r.hasNext()) {
+                    Info info = readInfo(r);
+                    if (info != null && Files.exists(file(info.id()))) infos.add(info);
+                }
+                r.endArray();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("读取快照索引失败: " + e.getMessage());
+            }
+        }
+        infos.sort(Comparator.comparingLong(Info::opened));
+        for (Info info : infos) {
+            index.put(info.id(), info);
+            totalBytes += info.size();
+        }
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.{lsnap,tmp}")) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(".tmp") || !index.containsKey(name.substring(0, name.length() - 6))) Files.deleteIfExists(p);
+            }
+        } catch (IOException e) {
+            System.err.println("清理快照失败: " + e.getMessage());
+        }
+    }
+
+    private static Info readInfo(JsonReader r) throws IOException {
+        String id = null, url = null, title = null;
+        long saved = 0, opened = 0, size = 0;
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "id" -> id = r.nextString();
+                case "url" -> url = r.nextString();
+                case "title" -> title = r.nextString();
+                case "saved" -> saved = r.nextLong();
+                case "opened" -> opened = r.nextLong();
+                case "size" -> size = r.nextLong();
+                default -> r.skipValue();
+            }
+        }
+        r.endObject();
+        return id == null || url == null ? null : new Info(id, url, title == null ? url : title, saved, opened, size);
+    }
+
+    // lantern-snapshot://<id>/<资源号>
+    private final class Connection extends URLConnection {
+        private SnapshotArchive archive;
+        private String name;
+
+        Connection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (connected) return;
+            name = url.getPath().startsWith("/") ? url.getPath().substring(1) : url.getPath();
+            archive = archive(url.getHost(), name.equals("0"));
+            if (archive == null || !archive.contains(name)) throw new FileNotFoundException(url.toString());
+            connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            return archive.read(name);
+        }
+
+        @Override
+        public String getContentType() {
+            try {
+                connect();
+                return archive.type(name);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            try {
+                connect();
+                return archive.size(name);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public String getHeaderField(String field) {
+            if ("content-type".equalsIgnoreCase(field)) return getContentType();
+            if ("content-length".equalsIgnoreCase(field)) return String.valueOf(getContentLengthLong());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Consumer;
+
+// 离线快照列表：新保存的在最上面，双击在新标签页里打开，不联网
+class SnapshotsWindow {
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final SnapshotStore store;
+    private final Consumer<String> opener;
+    private final Stage stage = new Stage();
+    private final ListView<SnapshotStore.Info> list = new ListView<>();
+    private final Label status = new Label();
+
+    SnapshotsWindow(SnapshotStore store, Consumer<String> opener) {
+        this.store = store;
+        this.opener = opener;
+    }
+
+    void show() {
+        stage.setTitle("离线快照");
+        list.setCellFactory(lv -> new InfoCell());
+        list.setOnMouseClicked(e -> {
+            if (e.getClickCount() == 2) openSelected();
+        });
+        list.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ENTER) openSelected();
+        });
+        Button open = new Button("打开");
+        open.setOnAction(e -> openSelected());
+        Button remove = new Button("删除");
+        remove.setOnAction(e -> {
+            SnapshotStore.Info info = list.getSelectionModel().getSelectedItem();
+            if (info == null) return;
+            store.remove(info.id());
+            refresh();
+        });
+        status.setStyle("-fx-font-size: 11px; -fx-text-fill: gray;");
+        status.setWrapText(true);
+        refresh();
+
+        VBox vbox = new VBox(8, new HBox(5, open, remove), list, status);
+        VBox.setVgrow(list, Priority.ALWAYS);
+        vbox.setPadding(new Insets(10));
+        stage.setScene(new Scene(vbox, 560, 420));
+        stage.show();
+    }
+
+    private void refresh() {
+        list.setItems(FXCollections.observableArrayList(store.list()));
+        status.setText(store.statsText());
+    }
+
+    private void openSelected() {
+        SnapshotStore.Info info = list.getSelectionModel().getSelectedItem();
+        if (info == null) return;
+        opener.accept(SnapshotStore.urlOf(info.id()));
+        stage.close();
+    }
+
+    private static final class InfoCell extends ListCell<SnapshotStore.Info> {
+        private final Label title = new Label();
+        private final Label detail = new Label();
+        private final VBox box = new VBox(2, title, detail);
+
+        InfoCell() {
+            title.setStyle("-fx-font-weight: bold;");
+            detail.setStyle("-fx-font-size: 11px; -fx-text-fill: gray;");
+        }
+
+        @Override
+        protected void updateItem(SnapshotStore.Info info, boolean empty) {
+            super.updateItem(info, empty);
+            if (empty || info == null) {
+                setGraphic(null);
+                return;
+            }
+            title.setText(info.title());
+            detail.setText(TIME.format(Instant.ofEpochMilli(info.saved()).atZone(ZoneId.systemDefault()))
+                    + String.format("  ·  %.0f KB  ·  ", info.size() / 1024.0) + info.url());
+            setGraphic(box);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 启动耗时统计：加 -Dlantern.traceStartup 运行时，每个阶段相对 JVM 启动的时间打印到标准错误，
+// 窗口画出来、存储读完这几个关键阶段都到齐后再打印一份汇总。不加这个参数时什么都不做
+final class StartupTrace {
+    static final boolean ENABLED = Boolean.getBoolean("lantern.traceStartup");
+    private static final String[] SUMMARY = {"窗口显示", "首次绘制", "存储加载完成"};
+    private static final Map<String, Long> marks = new LinkedHashMap<>();
+    private static boolean reported;
+
+    private StartupTrace() {
+    }
+
+    static synchronized void mark(String phase) {
+        if (!ENABLED || marks.containsKey(phase)) return;
+        long millis = ManagementFactory.getRuntimeMXBean().getUptime();
+        marks.put(phase, millis);
+        System.err.println("[启动] " + phase + " +" + millis + " ms");
+        if (reported) return;
+        for (String p : SUMMARY) if (!marks.containsKey(p)) return;
+        reported = true;
+        StringBuilder sb = new StringBuilder("[启动] 汇总:");
+        long previous = 0;
+        for (Map.Entry<String, Long> e : marks.entrySet()) {
+            sb.append(String.format("%n  %-12s %6d ms  (+%d)", e.getKey(), e.getValue(), e.getValue() - previous));
+            previous = e.getValue();
+        }
+        System.err.println(sb);
+    }
+}